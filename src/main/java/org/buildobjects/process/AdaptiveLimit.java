@@ -0,0 +1,116 @@
+package org.buildobjects.process;
+
+/**
+ * Adjusts the number of processes a {@link LaunchScheduler} runs at the same time, see
+ * {@link LaunchScheduler#withAdaptiveLimit(AdaptiveLimit)}. The limit follows the additive increase,
+ * multiplicative decrease scheme: it grows by one after a limit's worth of processes have completed
+ * in their usual time while all slots were taken, and shrinks by a factor when a process takes
+ * considerably longer than usual or when the machine is overloaded.
+ *
+ * The usual execution time is a slowly moving average of the observed execution times, so the
+ * limit fits invocations of similar cost. The machine counts as overloaded when the load average in
+ * {@code /proc/loadavg} exceeds the number of processors times a factor. The load gets sampled once a
+ * second, and the limit shrinks at most once per sample on account of it. On platforms without
+ * {@code /proc} only the execution times are taken into account.
+ */
+public class AdaptiveLimit {
+    private static final double BASELINE_WEIGHT = 0.05;
+    private static final long LOAD_SAMPLE_MILLIS = 1000;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private double latencyTolerance = 2;
+    private double decreaseFactor = 0.75;
+    private double loadFactor = 1;
+
+    private double baseline = -1;
+    private double load = -1;
+    private long loadSampled;
+    private long lastDecrease;
+
+    /**
+     * @param minLimit the lower bound of the limit, which is also the initial limit
+     * @param maxLimit the upper bound of the limit
+     */
+    public AdaptiveLimit(int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("The limits need to satisfy 1 <= minLimit <= maxLimit.");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = minLimit;
+    }
+
+    /** @param factor how many times longer than usual a process may take before the limit shrinks, 2 by default
+     * @return this, for chaining */
+    public AdaptiveLimit withLatencyTolerance(double factor) {
+        this.latencyTolerance = factor;
+        return this;
+    }
+
+    /** @param factor the factor the limit shrinks by, 0.75 by default
+     * @return this, for chaining */
+    public AdaptiveLimit withDecreaseFactor(double factor) {
+        if (factor <= 0 || factor >= 1) {
+            throw new IllegalArgumentException("The decrease factor needs to be in (0, 1).");
+        }
+        this.decreaseFactor = factor;
+        return this;
+    }
+
+    /** @param factor the load average per processor above which the machine counts as overloaded, 1 by default
+     * @return this, for chaining */
+    public AdaptiveLimit withLoadFactor(double factor) {
+        this.loadFactor = factor;
+        return this;
+    }
+
+    /** @return the current limit */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /** @return the usual execution time in milliseconds, or -1 if no process has completed yet */
+    public synchronized long getBaselineExecutionTime() {
+        return (long) baseline;
+    }
+
+    /**
+     * @param executionTime the execution time of the completed process in milliseconds, or -1 if it failed to complete
+     * @param saturated whether all slots were taken when the process completed
+     * @return the new limit
+     */
+    synchronized int update(long executionTime, boolean saturated) {
+        long now = System.currentTimeMillis();
+        boolean overloaded = isOverloaded(now);
+        boolean slow = false;
+        if (executionTime >= 0) {
+            if (baseline < 0) {
+                baseline = executionTime;
+            }
+            slow = executionTime > latencyTolerance * baseline;
+            baseline += BASELINE_WEIGHT * (executionTime - baseline);
+        }
+
+        if (slow || overloaded) {
+            // Processes that were started before the last decrease don't reflect it yet, and the load
+            // doesn't either until it gets sampled again.
+            if (now - lastDecrease > Math.max(baseline, slow ? 0 : LOAD_SAMPLE_MILLIS)) {
+                limit = Math.max(minLimit, limit * decreaseFactor);
+                lastDecrease = now;
+            }
+        } else if (saturated && executionTime >= 0) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        return (int) limit;
+    }
+
+    private boolean isOverloaded(long now) {
+        if (now - loadSampled >= LOAD_SAMPLE_MILLIS) {
+            load = ProcFs.loadAverage();
+            loadSampled = now;
+        }
+        return load >= 0 && load > loadFactor * Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -14,15 +14,16 @@ class ByteArrayConsumptionThread implements OutputConsumptionThread {
 
     private Throwable throwable;
 
-    private byte[] bytes;
+    private final ByteArrayOutputStream output;
     private final EventSink eventSink;
 
-    ByteArrayConsumptionThread(EventSink eventSink) {
+    ByteArrayConsumptionThread(EventSink eventSink, ByteArrayOutputStream output) {
         this.eventSink = eventSink;
+        this.output = output;
     }
 
-    public byte[] getBytes() {
-        return bytes;
+    public ByteArrayOutputStream getOutput() {
+        return output;
     }
 
 
@@ -30,7 +31,8 @@ class ByteArrayConsumptionThread implements OutputConsumptionThread {
         thread = new Thread(new Runnable() {
             public void run() {
                 try {
-                    bytes = toByteArray(inputStream);
+                    copy(inputStream, output);
+                    output.close();
                 } catch (Throwable t) {
                     if (!thread.isInterrupted()) {
                         ByteArrayConsumptionThread.this.throwable = t;
@@ -42,21 +44,18 @@ class ByteArrayConsumptionThread implements OutputConsumptionThread {
         thread.start();
     }
 
-    private static byte[] toByteArray(InputStream inputStream) throws IOException {
-        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private static void copy(InputStream inputStream, ByteArrayOutputStream output) throws IOException {
         final byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
 
         int n;
         while (-1 != (n = inputStream.read(buffer))) {
             output.write(buffer, 0, n);
         }
-
-        return output.toByteArray();
     }
 
 
-    public void join() throws InterruptedException {
-        thread.join();
+    public void join(long millis) throws InterruptedException {
+        thread.join(millis);
     }
 
     public void interrupt() {
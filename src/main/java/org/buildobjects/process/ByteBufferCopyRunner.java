@@ -0,0 +1,45 @@
+package org.buildobjects.process;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Feeds the remaining content of a {@link ByteBuffer} into a stream. Heap buffers are written
+ * straight from their backing array, direct buffers are copied in chunks.
+ */
+class ByteBufferCopyRunner implements Runnable {
+    private static final int DEFAULT_BUFFER_SIZE = 1024 * 8;
+
+    private final ByteBuffer in;
+    private final OutputStream out;
+
+    ByteBufferCopyRunner(ByteBuffer in, OutputStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    public void run() {
+        try {
+            write();
+            out.close();
+        } catch (IOException e) {
+            throw new RuntimeException("", e);
+        }
+    }
+
+    /** Write the buffer without closing the stream */
+    void write() throws IOException {
+        ByteBuffer source = in.duplicate();
+        if (source.hasArray()) {
+            out.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+        } else {
+            byte[] buffer = new byte[Math.min(DEFAULT_BUFFER_SIZE, source.remaining())];
+            while (source.hasRemaining()) {
+                int n = Math.min(buffer.length, source.remaining());
+                source.get(buffer, 0, n);
+                out.write(buffer, 0, n);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.buildobjects.process;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Feeds a file into a stream using {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+ * starting at the channel's current position up to the size it had when the transfer started. The
+ * position of the channel is not modified. The pipe of a {@link Process} is only available as stream,
+ * so the transfer goes through a buffer of the JDK rather than being zero-copy, but the file never
+ * gets loaded as a whole.
+ */
+class ChannelTransferRunner implements Runnable {
+    private final FileChannel in;
+    private final OutputStream out;
+
+    ChannelTransferRunner(FileChannel in, OutputStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    public void run() {
+        try {
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = in.position();
+            long size = in.size();
+            while (position < size) {
+                long transferred = in.transferTo(position, size - position, target);
+                if (transferred == 0 && position >= in.size()) {
+                    // The file got truncated while it was being fed.
+                    break;
+                }
+                position += transferred;
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new RuntimeException("", e);
+        }
+    }
+}
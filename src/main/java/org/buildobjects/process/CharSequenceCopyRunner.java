@@ -0,0 +1,37 @@
+package org.buildobjects.process;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+/**
+ * Encodes the elements of an iterator and feeds them into a stream. Elements are pulled lazily,
+ * only as fast as the stream accepts the data.
+ */
+class CharSequenceCopyRunner implements Runnable {
+    private final Iterator<? extends CharSequence> in;
+    private final OutputStream out;
+    private final Charset charset;
+
+    CharSequenceCopyRunner(Iterator<? extends CharSequence> in, OutputStream out, Charset charset) {
+        this.in = in;
+        this.out = out;
+        this.charset = charset;
+    }
+
+    public void run() {
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, charset));
+            while (in.hasNext()) {
+                writer.append(in.next());
+            }
+            writer.close();
+        } catch (IOException e) {
+            throw new RuntimeException("", e);
+        }
+    }
+}
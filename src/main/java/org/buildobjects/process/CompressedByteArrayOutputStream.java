@@ -0,0 +1,150 @@
+package org.buildobjects.process;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link ByteArrayOutputStream} that keeps its content deflated. Data is compressed as it gets
+ * written and inflated again whenever the content is requested, which flushes the compressed data
+ * written so far, so that the content can be requested while it is still being written. Closing the
+ * stream finishes the compression and releases the native resources of the deflater; no more data
+ * can be written after that, unless the stream gets reset.
+ */
+class CompressedByteArrayOutputStream extends ByteArrayOutputStream {
+    private static final int DEFAULT_BUFFER_SIZE = 4 * 1024;
+
+    private final byte[] chunk = new byte[DEFAULT_BUFFER_SIZE];
+    private Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private int uncompressedSize;
+    private int flushedSize;
+
+    @Override
+    public synchronized void write(int b) {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        if (deflater == null) {
+            throw new IllegalStateException("Stream has already been closed.");
+        }
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+        uncompressedSize += len;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (deflater == null) {
+            return;
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate();
+        }
+        deflater.end();
+        deflater = null;
+    }
+
+    private void deflate() {
+        int n = deflater.deflate(chunk);
+        super.write(chunk, 0, n);
+    }
+
+    private void syncFlush() {
+        if (deflater == null || flushedSize == uncompressedSize) {
+            return;
+        }
+        int n;
+        do {
+            n = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+            super.write(chunk, 0, n);
+        } while (n == chunk.length);
+        flushedSize = uncompressedSize;
+    }
+
+    @Override
+    public synchronized byte[] toByteArray() {
+        syncFlush();
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(buf, 0, count);
+            byte[] result = new byte[uncompressedSize];
+            int n = 0;
+            while (n < result.length) {
+                int inflated = inflater.inflate(result, n, result.length - n);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new DataFormatException("Unexpected end of compressed data.");
+                }
+                n += inflated;
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Captured output is corrupted.", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return uncompressedSize;
+    }
+
+    /** @return the number of bytes the content occupies in compressed form */
+    synchronized int compressedSize() {
+        return count;
+    }
+
+    /** @return a closed stream with the same content, which shares no state with this one */
+    synchronized CompressedByteArrayOutputStream copy() {
+        syncFlush();
+        CompressedByteArrayOutputStream copy = new CompressedByteArrayOutputStream();
+        copy.close();
+        copy.buf = Arrays.copyOf(buf, count);
+        copy.count = count;
+        copy.uncompressedSize = uncompressedSize;
+        copy.flushedSize = uncompressedSize;
+        return copy;
+    }
+
+    @Override
+    public synchronized void writeTo(OutputStream out) throws IOException {
+        out.write(toByteArray());
+    }
+
+    @Override
+    public synchronized void reset() {
+        if (deflater != null) {
+            deflater.end();
+        }
+        super.reset();
+        deflater = new Deflater(Deflater.BEST_SPEED);
+        uncompressedSize = 0;
+        flushedSize = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return new String(toByteArray());
+    }
+
+    @Override
+    public synchronized String toString(String charsetName) throws UnsupportedEncodingException {
+        return new String(toByteArray(), charsetName);
+    }
+
+    // Overrides ByteArrayOutputStream.toString(Charset) on Java 10+, which would decode the raw buffer.
+    public synchronized String toString(Charset charset) {
+        return new String(toByteArray(), charset);
+    }
+}
@@ -0,0 +1,36 @@
+package org.buildobjects.process;
+
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The sink of a {@link Tee} that only counts the bytes read from a stream, for reports about a running
+ * process. Subclasses can react to each chunk in {@link #counted()}.
+ */
+class CountingTap extends OutputStream {
+    private final AtomicLong bytes;
+
+    CountingTap(AtomicLong bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    public void write(int b) {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        bytes.addAndGet(len);
+        counted();
+    }
+
+    /** Called after a chunk has been counted, on the thread reading the stream */
+    void counted() {
+    }
+
+    /** @return a tee feeding the counter */
+    Tee tee() {
+        return new Tee(this, null);
+    }
+}
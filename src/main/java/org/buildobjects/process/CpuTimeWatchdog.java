@@ -0,0 +1,87 @@
+package org.buildobjects.process;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledFuture;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.buildobjects.process.ExecutionEvent.CPU_TIME_EXCEEDED;
+
+/**
+ * Periodically samples the CPU time consumed by a process and its descendants, and signals when it
+ * exceeds the budget. All watchdogs share one scan of the process tree per sampling interval.
+ */
+class CpuTimeWatchdog {
+    private static final Set<CpuTimeWatchdog> watchdogs = new CopyOnWriteArraySet<CpuTimeWatchdog>();
+    private static ScheduledFuture<?> sampling;
+
+    private final long pid;
+    private final long budget;
+    private final EventSink eventSink;
+    private volatile long cpuTime;
+
+    private CpuTimeWatchdog(long pid, long budget, EventSink eventSink) {
+        this.pid = pid;
+        this.budget = budget;
+        this.eventSink = eventSink;
+    }
+
+    /** @return a watchdog for the process
+     * @throws UnsupportedOperationException if the platform doesn't support measuring the CPU time of processes */
+    static CpuTimeWatchdog start(Process process, long budget, EventSink eventSink) {
+        long pid = ProcFs.pid(process);
+        if (pid < 0 || !ProcFs.isAvailable()) {
+            throw new UnsupportedOperationException("CPU time budgets are only supported on Linux.");
+        }
+        CpuTimeWatchdog watchdog = new CpuTimeWatchdog(pid, budget, eventSink);
+        watch(watchdog);
+        return watchdog;
+    }
+
+    private static synchronized void watch(CpuTimeWatchdog watchdog) {
+        watchdogs.add(watchdog);
+        if (sampling == null) {
+            sampling = ResourceSampler.scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    ProcFs.Snapshot snapshot = ProcFs.snapshot();
+                    for (CpuTimeWatchdog watchdog : watchdogs) {
+                        watchdog.sample(snapshot);
+                    }
+                }
+            }, 0, ResourceSampler.INTERVAL_MILLIS, MILLISECONDS);
+        }
+    }
+
+    private static synchronized void unwatch(CpuTimeWatchdog watchdog) {
+        if (watchdogs.remove(watchdog) && watchdogs.isEmpty()) {
+            sampling.cancel(false);
+            sampling = null;
+        }
+    }
+
+    private void sample(ProcFs.Snapshot snapshot) {
+        long treeCpuTime = snapshot.treeCpuTime(pid);
+        if (treeCpuTime < 0) {
+            return;
+        }
+        cpuTime = Math.max(cpuTime, treeCpuTime);
+        if (cpuTime > budget) {
+            unwatch(this);
+            eventSink.dispatch(CPU_TIME_EXCEEDED);
+        }
+    }
+
+    /** Kill the process and its descendants */
+    void killTree() {
+        ProcFs.killTree(pid);
+    }
+
+    void stop() {
+        unwatch(this);
+    }
+
+    /** @return the CPU time consumed as of the last sample in milliseconds */
+    long getCpuTime() {
+        return cpuTime;
+    }
+}
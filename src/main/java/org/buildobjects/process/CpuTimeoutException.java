@@ -0,0 +1,16 @@
+package org.buildobjects.process;
+
+/** Signals that a process and its descendants exceeded their CPU time budget */
+public class CpuTimeoutException extends TimeoutException {
+    private final long cpuTime;
+
+    CpuTimeoutException(String s, long cpuTimeout, long cpuTime) {
+        super("Process '" + s + "' exceeded its CPU time budget of " + cpuTimeout + "ms after using " + cpuTime + "ms.");
+        this.cpuTime = cpuTime;
+    }
+
+    /** @return the CPU time used by the process and its descendants in milliseconds, as of the last sample */
+    public long getCpuTime() {
+        return cpuTime;
+    }
+}
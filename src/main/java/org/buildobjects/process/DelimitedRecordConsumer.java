@@ -0,0 +1,47 @@
+package org.buildobjects.process;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+class DelimitedRecordConsumer implements StreamConsumer {
+    private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    private final byte delimiter;
+    private final RecordHandler<byte[]> handler;
+
+    DelimitedRecordConsumer(byte delimiter, RecordHandler<byte[]> handler) {
+        this.delimiter = delimiter;
+        this.handler = handler;
+    }
+
+    public void consume(InputStream stream) throws IOException {
+        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+        // Holds the beginning of a record that spans multiple reads.
+        ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+        int n;
+        while (-1 != (n = stream.read(buffer))) {
+            int start = 0;
+            for (int i = 0; i < n; i++) {
+                if (buffer[i] != delimiter) {
+                    continue;
+                }
+                if (pending.size() == 0) {
+                    handler.handle(Arrays.copyOfRange(buffer, start, i));
+                } else {
+                    pending.write(buffer, start, i - start);
+                    handler.handle(pending.toByteArray());
+                    pending.reset();
+                }
+                start = i + 1;
+            }
+            pending.write(buffer, start, n - start);
+        }
+
+        if (pending.size() > 0) {
+            handler.handle(pending.toByteArray());
+        }
+    }
+}
@@ -2,5 +2,5 @@ package org.buildobjects.process;
 
 
 enum ExecutionEvent {
-    PROCESS_EXITED, EXCEPTION_IN_STREAM_HANDLING
+    PROCESS_EXITED, EXCEPTION_IN_STREAM_HANDLING, TERMINATION_REQUESTED, CPU_TIME_EXCEEDED, IDLE_TIMEOUT_EXCEEDED
 }
@@ -1,7 +1,7 @@
 package org.buildobjects.process;
 
 import java.io.ByteArrayOutputStream;
-import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.charset.Charset;
 
 /**
  * Signals the failure of an external process that returned a non zero exit code. It captures additional information
@@ -14,14 +14,18 @@ public class ExternalProcessFailureException extends RuntimeException {
     final private String stderr;
     private final ByteArrayOutputStream stdout;
     final private long time;
+    private final ResourceUsage resourceUsage;
+    private final Charset charset;
 
-    ExternalProcessFailureException(String command, String commandLine, int exitValue, String stderr, ByteArrayOutputStream stdOut, long time) {
+    ExternalProcessFailureException(String command, String commandLine, int exitValue, String stderr, ByteArrayOutputStream stdOut, long time, ResourceUsage resourceUsage, Charset charset) {
         this.command = command;
         this.commandLine = commandLine;
         this.exitValue = exitValue;
         this.stderr = stderr;
         this.stdout = stdOut;
         this.time = time;
+        this.resourceUsage = resourceUsage;
+        this.charset = charset;
     }
 
     private String formatOutput(String string, String prefix) {
@@ -46,17 +50,21 @@ public class ExternalProcessFailureException extends RuntimeException {
     @Override
     public String getMessage() {
         String formattedStdErr = formatOutput(stderr, "  STDERR: ");
-        final String outString = stdout != null ? new String(stdout.toByteArray(), UTF_8) : null;
+        final String outString = stdout != null ? Helper.decode(stdout.toByteArray(), charset) : null;
         String formattedStdOut = formatOutput(outString, "  STDOUT: ");
 
         return
-            "External process `" + command + "` terminated with unexpected exit status " + exitValue +
+            "External process `" + command + "` " + describeFailure() +
                 " after " + time + "ms:\n" +
                 "  $ " + commandLine + "\n" +
                 formattedStdErr +
                 formattedStdOut;
     }
 
+    String describeFailure() {
+        return "terminated with unexpected exit status " + exitValue;
+    }
+
     /**
      * @return the command that was executed
      * @deprecated Use getCommandLine
@@ -95,4 +103,11 @@ public class ExternalProcessFailureException extends RuntimeException {
     public long getTime() {
         return time;
     }
+
+    /**
+     * @return the resources used by the process, or null if they have not been measured
+     */
+    public ResourceUsage getResourceUsage() {
+        return resourceUsage;
+    }
 }
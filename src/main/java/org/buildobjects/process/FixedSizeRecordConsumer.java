@@ -0,0 +1,36 @@
+package org.buildobjects.process;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+class FixedSizeRecordConsumer implements StreamConsumer {
+    private final int recordSize;
+    private final RecordHandler<byte[]> handler;
+
+    FixedSizeRecordConsumer(int recordSize, RecordHandler<byte[]> handler) {
+        if (recordSize <= 0) {
+            throw new IllegalArgumentException("Record size must be positive, but was " + recordSize + ".");
+        }
+        this.recordSize = recordSize;
+        this.handler = handler;
+    }
+
+    public void consume(InputStream stream) throws IOException {
+        byte[] record = new byte[recordSize];
+        int filled = 0;
+
+        int n;
+        while (-1 != (n = stream.read(record, filled, recordSize - filled))) {
+            filled += n;
+            if (filled == recordSize) {
+                handler.handle(record);
+                record = new byte[recordSize];
+                filled = 0;
+            }
+        }
+
+        if (filled > 0) {
+            throw new IOException("Stream ended with an incomplete record of " + filled + " bytes, expected " + recordSize + ".");
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.buildobjects.process;
+
+import java.io.InputStream;
+
+/**
+ * Emits Java Flight Recorder events for process spawns, exits, timeouts and kills, and for reads of
+ * the pipes that block for long. JFR is only available on Java 11 and later, so this is the no-op
+ * version for older runtimes. The jar contains an implementation for Java 11 and later in
+ * {@code META-INF/versions/11}, which takes its place there. The methods take the process rather than
+ * its command line, so that it only gets formatted for events that are recorded.
+ */
+class FlightRecorderEvents {
+
+    private FlightRecorderEvents() {
+    }
+
+    static void spawned(Proc proc, long spawnTime) {
+    }
+
+    static void exited(Proc proc, int exitValue, long executionTime) {
+    }
+
+    static void timedOut(Proc proc, TimeoutException exception) {
+    }
+
+    static void killed(Proc proc) {
+    }
+
+    /** @return the stream, instrumented to report reads that block for long if that event is enabled */
+    static InputStream instrument(InputStream stream, String name) {
+        return stream;
+    }
+}
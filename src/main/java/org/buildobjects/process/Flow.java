@@ -0,0 +1,38 @@
+package org.buildobjects.process;
+
+/**
+ * Interfaces for reactive streams with demand-driven backpressure. They mirror
+ * {@code java.util.concurrent.Flow} and the Reactive Streams API method for method, which this
+ * library can't use as it supports Java 7. Adapting to either is a matter of delegating the calls. On
+ * Java 11 and later, {@code FlowAdapters} converts to and from {@code java.util.concurrent.Flow}.
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    /** A producer of items that are received by subscribers according to their demand
+     * @param <T> type of the items */
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /** A receiver of items
+     * @param <T> type of the items */
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /** Links a publisher and a subscriber, the subscriber signals its demand through it */
+    public interface Subscription {
+        void request(long n);
+
+        void cancel();
+    }
+}
@@ -0,0 +1,176 @@
+package org.buildobjects.process;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Cuts the tail latency of a tool by hedging, see {@link ProcBuilder#withHedging(HedgingPolicy)}.
+ * The policy keeps a window of recent execution times, as observed by the caller: from the start of
+ * the first copy until a copy has succeeded. Once it has seen enough of them, a second
+ * copy of the process gets started whenever the first one is still running after the configured
+ * percentile of the execution times, 95% by default. The first copy that succeeds wins and the
+ * other one is terminated. If both fail, the first failure is thrown.
+ *
+ * Hedging runs the tool twice for the slowest invocations, so it only fits tools without side
+ * effects. The policy is thread safe and is meant to be shared between all invocations of a tool.
+ */
+public class HedgingPolicy {
+
+    interface Attempt {
+        ProcResult run(ProcControl control);
+    }
+
+    private final long[] window;
+    private int samples;
+    private int next;
+    private double percentile = 95;
+    private int minSamples = 20;
+
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /** Creates a policy that remembers the last 100 execution times. */
+    public HedgingPolicy() {
+        this(100);
+    }
+
+    /** @param windowSize the number of recent execution times to remember */
+    public HedgingPolicy(int windowSize) {
+        this.window = new long[windowSize];
+    }
+
+    /** @param percentile the percentile of the execution times after which to hedge, e.g. 99
+     * @return this, for chaining */
+    public HedgingPolicy withPercentile(double percentile) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("The percentile needs to be in (0, 100].");
+        }
+        this.percentile = percentile;
+        return this;
+    }
+
+    /** @param count the number of execution times to collect before hedging at all, 20 by default
+     * @return this, for chaining */
+    public HedgingPolicy withMinimumSamples(int count) {
+        this.minSamples = count;
+        return this;
+    }
+
+    /** @return the time in milliseconds after which a second copy gets started, or -1 if
+     *          not enough execution times have been seen yet */
+    public synchronized long getHedgeDelay() {
+        if (samples == 0 || samples < minSamples) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(window, samples);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * samples) - 1;
+        return sorted[Math.max(index, 0)];
+    }
+
+    /** @return the number of times a second copy has been started */
+    public long getHedgeCount() {
+        return hedges.get();
+    }
+
+    /** @return the number of times the second copy finished first */
+    public long getHedgeWinCount() {
+        return hedgeWins.get();
+    }
+
+    synchronized void record(long executionTime) {
+        window[next] = executionTime;
+        next = (next + 1) % window.length;
+        samples = Math.min(samples + 1, window.length);
+    }
+
+    ProcResult execute(Attempt attempt, ProcControl control) {
+        long start = System.currentTimeMillis();
+        long delay = getHedgeDelay();
+        if (delay < 0) {
+            ProcResult result = attempt.run(control);
+            record(System.currentTimeMillis() - start);
+            return result;
+        }
+
+        BlockingQueue<Outcome> outcomes = new LinkedBlockingQueue<Outcome>();
+        final ProcControl primary = new ProcControl();
+        final ProcControl hedge = new ProcControl();
+        if (control != null) {
+            control.attach(new EventSink() {
+                public void dispatch(ExecutionEvent event) {
+                    primary.terminate();
+                    hedge.terminate();
+                }
+            });
+        }
+
+        start(attempt, primary, outcomes);
+        try {
+            Outcome first = outcomes.poll(delay, MILLISECONDS);
+            int running = 1;
+            if (first == null) {
+                hedges.incrementAndGet();
+                start(attempt, hedge, outcomes);
+                running = 2;
+                first = outcomes.take();
+            }
+            running--;
+
+            Outcome winner = first;
+            while (winner.failure != null && running > 0) {
+                winner = outcomes.take();
+                running--;
+            }
+            primary.terminate();
+            hedge.terminate();
+
+            if (winner.failure != null) {
+                throw first.failure;
+            }
+            if (winner.control == hedge) {
+                hedgeWins.incrementAndGet();
+            }
+            // The hedge delay plus the time of the hedge if that won, which is also a lower bound for the
+            // time of the terminated first copy.
+            record(System.currentTimeMillis() - start);
+            return winner.result;
+        } catch (InterruptedException e) {
+            primary.terminate();
+            hedge.terminate();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a hedged process.", e);
+        }
+    }
+
+    private static void start(final Attempt attempt, final ProcControl control, final BlockingQueue<Outcome> outcomes) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                Outcome outcome = new Outcome(control);
+                try {
+                    outcome.result = attempt.run(control);
+                } catch (RuntimeException e) {
+                    outcome.failure = e;
+                }
+                outcomes.add(outcome);
+            }
+        }, "jproc-hedge");
+        // The caller may give up waiting when interrupted, that must not keep the JVM alive.
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static class Outcome {
+        private final ProcControl control;
+        private ProcResult result;
+        private RuntimeException failure;
+
+        Outcome(ProcControl control) {
+            this.control = control;
+        }
+    }
+}
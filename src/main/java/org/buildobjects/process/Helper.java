@@ -1,8 +1,12 @@
 package org.buildobjects.process;
 
+import java.nio.charset.Charset;
 import java.util.HashSet;
 import java.util.Set;
 
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 
 public class Helper {
@@ -20,4 +24,26 @@ public class Helper {
         }
         return set;
     }
+
+    /**
+     * Decodes bytes into a string. Pure ASCII input in an ASCII compatible charset is
+     * decoded as ISO-8859-1, which maps bytes to chars one to one without running a decoder.
+     */
+    static String decode(byte[] bytes, Charset charset) {
+        if (charset.equals(UTF_8) || charset.equals(US_ASCII) || charset.equals(ISO_8859_1)) {
+            if (isAscii(bytes)) {
+                return new String(bytes, ISO_8859_1);
+            }
+        }
+        return new String(bytes, charset);
+    }
+
+    private static boolean isAscii(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,8 @@
+package org.buildobjects.process;
+
+/** Signals that a process didn't produce any output for longer than its idle timeout */
+public class IdleTimeoutException extends TimeoutException {
+    IdleTimeoutException(String s, long idleTimeout) {
+        super("Process '" + s + "' produced no output for " + idleTimeout + "ms.");
+    }
+}
@@ -0,0 +1,62 @@
+package org.buildobjects.process;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ScheduledFuture;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.buildobjects.process.ExecutionEvent.IDLE_TIMEOUT_EXCEEDED;
+
+/**
+ * Tracks when output of a process has been read last, and signals when it has been silent for
+ * longer than the idle timeout. The watchdogs of all processes share the sampler thread.
+ */
+class IdleWatchdog implements Runnable {
+    private final long idleTimeout;
+    private final EventSink eventSink;
+    private volatile long lastActivity = System.nanoTime();
+    private ScheduledFuture<?> future;
+
+    IdleWatchdog(long idleTimeout, EventSink eventSink) {
+        this.idleTimeout = idleTimeout;
+        this.eventSink = eventSink;
+    }
+
+    /** @return a stream that registers reading output as activity */
+    InputStream track(InputStream stream) {
+        return new FilterInputStream(stream) {
+            @Override
+            public int read() throws IOException {
+                int b = in.read();
+                lastActivity = System.nanoTime();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = in.read(b, off, len);
+                lastActivity = System.nanoTime();
+                return n;
+            }
+        };
+    }
+
+    synchronized void start() {
+        long interval = Math.max(10, Math.min(idleTimeout / 10, 1000));
+        future = ResourceSampler.scheduler.scheduleWithFixedDelay(this, interval, interval, MILLISECONDS);
+    }
+
+    public void run() {
+        if (System.nanoTime() - lastActivity > MILLISECONDS.toNanos(idleTimeout)) {
+            stop();
+            eventSink.dispatch(IDLE_TIMEOUT_EXCEEDED);
+        }
+    }
+
+    synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+}
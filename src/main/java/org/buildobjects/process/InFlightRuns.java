@@ -0,0 +1,48 @@
+package org.buildobjects.process;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces concurrent invocations with the same key: the first caller spawns the process, callers
+ * arriving while it is running wait for it and receive the same result or exception.
+ */
+class InFlightRuns {
+    private static final ConcurrentMap<InvocationKey, FutureTask<ProcResult>> flights =
+        new ConcurrentHashMap<InvocationKey, FutureTask<ProcResult>>();
+
+    private InFlightRuns() {
+    }
+
+    static ProcResult run(InvocationKey key, Callable<ProcResult> run) {
+        FutureTask<ProcResult> task = new FutureTask<ProcResult>(run);
+        FutureTask<ProcResult> inFlight = flights.putIfAbsent(key, task);
+        if (inFlight == null) {
+            try {
+                task.run();
+            } finally {
+                flights.remove(key, task);
+            }
+            inFlight = task;
+        }
+
+        try {
+            return inFlight.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Unexpected exception while running process.", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for process spawned by another thread.", e);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.buildobjects.process;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Records standard output and standard error of a process in the order in which they have been
+ * read, see {@link ProcBuilder#withInterleavedCapture(InterleavedOutput)}. Every chunk read from
+ * either stream is appended together with the stream it came from and a monotonic timestamp.
+ * The bytes of all chunks share a single array, so the overhead per chunk is 13 bytes.
+ *
+ * By default all output is kept, for long running or chatty processes a capacity can be given
+ * instead. Once it is exceeded the oldest chunks get dropped, so that the most recent output is kept.
+ *
+ * Iterating replays the chunks in order. Iterators see the chunks recorded when they were created,
+ * so they can be used while the process is still running.
+ */
+public class InterleavedOutput implements Iterable<InterleavedOutput.Chunk> {
+
+    /** The stream a chunk has been read from */
+    public enum Source {
+        STDOUT, STDERR
+    }
+
+    private final long origin = System.nanoTime();
+    private final int capacity;
+
+    private byte[] data = new byte[4096];
+    private int start;
+    private int size;
+    private int[] ends = new int[64];
+    private long[] timestamps = new long[64];
+    private byte[] sources = new byte[64];
+    private int first;
+    private int count;
+    private long droppedBytes;
+
+    /** Keep all output. */
+    public InterleavedOutput() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /** @param capacity the number of bytes to keep at most, the oldest chunks get dropped beyond that */
+    public InterleavedOutput(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity needs to be positive.");
+        }
+        this.capacity = capacity;
+    }
+
+    /** A chunk of output, as read from the pipe of the process */
+    public static class Chunk {
+        private final Source source;
+        private final long timestamp;
+        private final byte[] bytes;
+
+        Chunk(Source source, long timestamp, byte[] bytes) {
+            this.source = source;
+            this.timestamp = timestamp;
+            this.bytes = bytes;
+        }
+
+        public Source getSource() {
+            return source;
+        }
+
+        /** @return the time the chunk has been read, in nanoseconds since the capture has been created */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        /** @param charset the charset to decode the chunk with, which may split characters between chunks
+         * @return the chunk as string */
+        public String getString(Charset charset) {
+            return Helper.decode(bytes, charset);
+        }
+    }
+
+    /** @return the number of chunks recorded */
+    public synchronized int getChunkCount() {
+        return count - first;
+    }
+
+    /** @return the number of bytes recorded from both streams */
+    public synchronized int getByteCount() {
+        return size - start;
+    }
+
+    /** @return the number of bytes that have been dropped to stay within the capacity */
+    public synchronized long getDroppedByteCount() {
+        return droppedBytes;
+    }
+
+    /** @return the bytes of both streams, in the order in which they have been read */
+    public synchronized byte[] getBytes() {
+        return Arrays.copyOfRange(data, start, size);
+    }
+
+    /** @param charset the charset to decode the output with
+     * @return the output of both streams, in the order in which it has been read */
+    public String getString(Charset charset) {
+        return Helper.decode(getBytes(), charset);
+    }
+
+    public synchronized Iterator<Chunk> iterator() {
+        final byte[] data = this.data;
+        final int[] ends = this.ends;
+        final long[] timestamps = this.timestamps;
+        final byte[] sources = this.sources;
+        final int first = this.first;
+        final int start = this.start;
+        final int count = this.count;
+
+        return new Iterator<Chunk>() {
+            private int index = first;
+
+            public boolean hasNext() {
+                return index < count;
+            }
+
+            public Chunk next() {
+                if (index >= count) {
+                    throw new NoSuchElementException();
+                }
+                int from = index == first ? start : ends[index - 1];
+                Chunk chunk = new Chunk(Source.values()[sources[index]], timestamps[index], Arrays.copyOfRange(data, from, ends[index]));
+                index++;
+                return chunk;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("The output is append-only.");
+            }
+        };
+    }
+
+    synchronized void append(Source source, byte[] chunk, int offset, int length) {
+        long timestamp = System.nanoTime() - origin;
+        if (length > capacity) {
+            // Only the end of the chunk fits.
+            droppedBytes += length - capacity;
+            offset += length - capacity;
+            length = capacity;
+        }
+        while (size - start + length > capacity) {
+            droppedBytes += ends[first] - start;
+            start = ends[first++];
+        }
+        if (size + length > data.length || count == ends.length) {
+            reallocate(size - start + length, count - first + 1);
+        }
+        System.arraycopy(chunk, offset, data, size, length);
+        size += length;
+        ends[count] = size;
+        timestamps[count] = timestamp;
+        sources[count] = (byte) source.ordinal();
+        count++;
+    }
+
+    /** Move the retained chunks into new arrays, so that iterators keep seeing the old ones, growing them
+     * unless they would be at most half full */
+    private void reallocate(int bytes, int chunks) {
+        int dataLength = data.length;
+        if (bytes > dataLength / 2) {
+            dataLength = (int) Math.min(Math.max(dataLength * 2L, bytes), Math.max(2L * capacity, bytes));
+            dataLength = Math.min(dataLength, Integer.MAX_VALUE - 8);
+        }
+        int chunkLength = chunks > ends.length / 2 ? ends.length * 2 : ends.length;
+
+        byte[] data = new byte[dataLength];
+        System.arraycopy(this.data, start, data, 0, size - start);
+        int[] ends = new int[chunkLength];
+        for (int i = first; i < count; i++) {
+            ends[i - first] = this.ends[i] - start;
+        }
+        this.data = data;
+        this.ends = ends;
+        timestamps = Arrays.copyOfRange(timestamps, first, first + chunkLength);
+        sources = Arrays.copyOfRange(sources, first, first + chunkLength);
+        size -= start;
+        count -= first;
+        start = 0;
+        first = 0;
+    }
+
+    /** @return a stream that appends everything written to it as chunks of the given source */
+    OutputStream sink(final Source source) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                append(source, b, off, len);
+            }
+        };
+    }
+}
@@ -0,0 +1,97 @@
+package org.buildobjects.process;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Identifies an invocation by a SHA-256 hash over everything that influences its outcome.
+ * Keys are built by {@link ProcBuilder} and may be extended with further inputs.
+ */
+final class InvocationKey {
+    private final String hash;
+
+    private InvocationKey(String hash) {
+        this.hash = hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof InvocationKey && hash.equals(((InvocationKey) o).hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return hash;
+    }
+
+    static class Builder {
+        private final MessageDigest digest;
+
+        Builder() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available.", e);
+            }
+        }
+
+        Builder add(String value) {
+            if (value == null) {
+                return add((ByteBuffer) null);
+            }
+            return add(ByteBuffer.wrap(value.getBytes(UTF_8)));
+        }
+
+        /** Adds the remaining content of the buffer, without modifying its position. */
+        Builder add(ByteBuffer value) {
+            if (value == null) {
+                addLength(-1);
+                return this;
+            }
+            addLength(value.remaining());
+            digest.update(value.duplicate());
+            return this;
+        }
+
+        /** Adds the path as well as the content of the file. */
+        Builder add(File file) throws IOException {
+            add(file.getAbsolutePath());
+            addLength(file.length());
+            byte[] buffer = new byte[8 * 1024];
+            try (InputStream in = new FileInputStream(file)) {
+                int n;
+                while (-1 != (n = in.read(buffer))) {
+                    digest.update(buffer, 0, n);
+                }
+            }
+            return this;
+        }
+
+        private void addLength(long length) {
+            // Length prefixes keep adjacent fields from running into each other.
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                digest.update((byte) (length >>> shift));
+            }
+        }
+
+        InvocationKey build() {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return new InvocationKey(hex.toString());
+        }
+    }
+}
@@ -1,31 +1,88 @@
 package org.buildobjects.process;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 class IoHandler {
     private final OutputConsumptionThread stdout;
     private final OutputConsumptionThread stderr;
+    private TeeInputStream outputTee;
+    private TeeInputStream errorTee;
     Thread inFeeder;
 
 
-    IoHandler(InputStream stdin, OutputConsumptionThread stdout, OutputConsumptionThread stderr, Process process) {
+    IoHandler(ProcConfig config, OutputConsumptionThread stdout, OutputConsumptionThread stderr, Process process,
+              EventSink eventSink, IdleWatchdog idleWatchdog, ProcNotifier notifier) {
         this.stdout = stdout;
         this.stderr = stderr;
-        InputStream out = process.getInputStream();
-        InputStream err = process.getErrorStream();
+        List<Tee> outputTees = config.outputTees;
+        List<Tee> errorTees = config.errorTees;
+        ProgressTracker progress = config.progress;
+        if (progress != null) {
+            outputTees = withTap(outputTees, progress.outputTap());
+            errorTees = withTap(errorTees, progress.errorTap());
+        }
+        if (notifier != null) {
+            outputTees = withTap(outputTees, notifier.outputTap());
+            errorTees = withTap(errorTees, notifier.errorTap());
+        }
+        InputStream out = matching(tracking(FlightRecorderEvents.instrument(process.getInputStream(), "stdout"), idleWatchdog), config.outputPatterns, config.charset, eventSink);
+        if (!outputTees.isEmpty()) {
+            out = outputTee = new TeeInputStream(out, outputTees);
+        }
+        if (config.outputBuffer != null) {
+            out = new RingBufferInputStream(out, config.outputBuffer);
+        }
+        InputStream err = matching(tracking(FlightRecorderEvents.instrument(process.getErrorStream(), "stderr"), idleWatchdog), config.errorPatterns, config.charset, eventSink);
+        if (!errorTees.isEmpty()) {
+            err = errorTee = new TeeInputStream(err, errorTees);
+        }
         OutputStream in = process.getOutputStream();
+        if (progress != null) {
+            in = progress.countInput(in);
+        }
 
         stdout.startConsumption(out);
         stderr.startConsumption(err);
-        inFeeder = startConsumption(in, stdin, true);
+        inFeeder = startFeeding(in, config.stdin, config.charset);
+    }
+
+    private static List<Tee> withTap(List<Tee> tees, Tee tap) {
+        List<Tee> tapped = new ArrayList<Tee>(tees);
+        tapped.add(tap);
+        return tapped;
+    }
+
+    private static InputStream tracking(InputStream stream, IdleWatchdog idleWatchdog) {
+        return idleWatchdog != null ? idleWatchdog.track(stream) : stream;
     }
 
-    List<Throwable> joinConsumption() throws InterruptedException {
-        inFeeder.join();
-        stdout.join();
-        stderr.join();
+    private static InputStream matching(InputStream stream, List<LinePattern> patterns, Charset charset, EventSink eventSink) {
+        if (patterns.isEmpty()) {
+            return stream;
+        }
+        return new LineMatchingInputStream(stream, patterns, charset, eventSink);
+    }
+
+    /** Wait for the streams to be consumed and the tees to be fed, at most the given time after which the
+     * consumption gets cancelled.
+     * @param millis the time to wait at most, 0 to wait until the streams have been consumed
+     * @return the exceptions the consumption failed with */
+    List<Throwable> joinConsumption(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        inFeeder.join(remaining(millis, deadline));
+        stdout.join(remaining(millis, deadline));
+        stderr.join(remaining(millis, deadline));
+        if (millis != 0) {
+            // E.g. a child of a terminated process may keep the pipes open.
+            cancelConsumption();
+        }
 
         List<Throwable> exceptions = new ArrayList<Throwable>();
 
@@ -37,21 +94,70 @@ class IoHandler {
             exceptions.add(stderr.getThrowable());
         }
 
+        // The consumers may have stopped reading before the end of the streams, which ends the tees as well.
+        endTee(outputTee, exceptions);
+        endTee(errorTee, exceptions);
+        if (outputTee != null) {
+            exceptions.addAll(outputTee.join(remaining(millis, deadline)));
+        }
+
+        if (errorTee != null) {
+            exceptions.addAll(errorTee.join(remaining(millis, deadline)));
+        }
+
         return exceptions;
 
     }
 
+    private static void endTee(TeeInputStream tee, List<Throwable> exceptions) {
+        if (tee != null) {
+            try {
+                tee.end();
+            } catch (IOException e) {
+                exceptions.add(e);
+            }
+        }
+    }
+
+    private static long remaining(long millis, long deadline) {
+        return millis == 0 ? 0 : Math.max(1, deadline - System.currentTimeMillis());
+    }
+
     void cancelConsumption() {
         inFeeder.interrupt();
         stdout.interrupt();
         stderr.interrupt();
+        if (outputTee != null) {
+            outputTee.cancel();
+        }
+        if (errorTee != null) {
+            errorTee.cancel();
+        }
     }
 
-    Thread startConsumption(OutputStream stdout, InputStream out, boolean closeAfterWriting) {
-        Thread consumer;
-        consumer = new Thread(new StreamCopyRunner(out, stdout, closeAfterWriting));
-        consumer.start();
-        return consumer;
+    Thread startFeeding(OutputStream in, Object stdin, Charset charset) {
+        Thread feeder = new Thread(createInputFeeder(in, stdin, charset));
+        feeder.start();
+        return feeder;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Runnable createInputFeeder(OutputStream in, Object stdin, Charset charset) {
+        if (stdin == null || stdin instanceof InputStream) {
+            return new StreamCopyRunner((InputStream) stdin, in, true);
+        } else if (stdin instanceof ByteBuffer) {
+            return new ByteBufferCopyRunner((ByteBuffer) stdin, in);
+        } else if (stdin instanceof FileChannel) {
+            return new ChannelTransferRunner((FileChannel) stdin, in);
+        } else if (stdin instanceof CharSequence) {
+            return new CharSequenceCopyRunner(Collections.singletonList((CharSequence) stdin).iterator(), in, charset);
+        } else if (stdin instanceof Iterator) {
+            return new CharSequenceCopyRunner((Iterator<? extends CharSequence>) stdin, in, charset);
+        } else if (stdin instanceof Flow.Publisher) {
+            return new SubscribingCopyRunner((Flow.Publisher<? extends ByteBuffer>) stdin, in);
+        } else {
+            throw new RuntimeException("Badness, badness");
+        }
     }
 
 }
\ No newline at end of file
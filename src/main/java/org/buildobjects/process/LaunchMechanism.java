@@ -0,0 +1,67 @@
+package org.buildobjects.process;
+
+/**
+ * The mechanism the JDK uses to launch child processes on Unix-like platforms. Launching a child
+ * through {@link #FORK} copies the page tables of the parent, so its cost grows with the heap of the
+ * JVM, {@link #VFORK} and {@link #POSIX_SPAWN} avoid that.
+ *
+ * The JDK reads its setting, the system property {@value #PROPERTY}, once when the first process
+ * gets launched, so the mechanism is a global setting that has to be selected early, see
+ * {@link ProcBuilder#useLaunchMechanism(LaunchMechanism)}.
+ */
+public enum LaunchMechanism {
+    POSIX_SPAWN, VFORK, FORK;
+
+    static final String PROPERTY = "jdk.lang.Process.launchMechanism";
+
+    private static volatile boolean processStarted;
+
+    static synchronized void select(LaunchMechanism mechanism) {
+        if (mechanism == VFORK && !System.getProperty("os.name").startsWith("Linux")) {
+            throw new IllegalArgumentException("The launch mechanism VFORK is only supported on Linux.");
+        }
+        if (mechanism == effective()) {
+            return;
+        }
+        if (processStarted) {
+            throw new IllegalStateException("The launch mechanism can't be changed after the first process has been started.");
+        }
+        System.setProperty(PROPERTY, mechanism.name());
+    }
+
+    /** @return the explicitly selected launch mechanism, or null if the JDK uses its platform default */
+    static LaunchMechanism current() {
+        String value = System.getProperty(PROPERTY);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /** @return the launch mechanism the JDK uses, i.e. the one explicitly selected or else the platform
+     *          default, or null if the platform has none */
+    static LaunchMechanism effective() {
+        LaunchMechanism current = current();
+        if (current != null) {
+            return current;
+        }
+        String os = System.getProperty("os.name");
+        if (os.startsWith("Windows")) {
+            return null;
+        }
+        if (os.startsWith("Linux")) {
+            // Linux used vfork until JDK 12.
+            String version = System.getProperty("java.specification.version");
+            return version.startsWith("1.") || Integer.parseInt(version) < 12 ? VFORK : POSIX_SPAWN;
+        }
+        return POSIX_SPAWN;
+    }
+
+    static void processStarting() {
+        processStarted = true;
+    }
+}
@@ -0,0 +1,8 @@
+package org.buildobjects.process;
+
+/** Signals that a process was not started because the queue of its {@link LaunchScheduler} was full */
+public class LaunchRejectedException extends StartupException {
+    LaunchRejectedException(String s, int queued) {
+        super("Could not startup process '" + s + "', " + queued + " launches are queued already.", null);
+    }
+}
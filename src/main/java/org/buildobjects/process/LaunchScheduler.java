@@ -0,0 +1,262 @@
+package org.buildobjects.process;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Caps the number of processes that run at the same time, see
+ * {@link ProcBuilder#withLaunchScheduler(LaunchScheduler, LaunchScheduler.Priority, String)}. A process
+ * holds its slot from spawning until it has exited and its output has been consumed. Launches beyond
+ * the cap wait in a queue, and are rejected with a {@link LaunchRejectedException} once the queue is full.
+ * A launch that doesn't get a slot within the timeout of its builder fails with a {@link TimeoutException}.
+ *
+ * When a slot frees up, it goes to the highest priority with queued launches, so interactive
+ * invocations never wait behind bulk jobs. Within a priority the tenants take turns, so a tenant
+ * that queues many launches doesn't starve the others. Launches of the same tenant start in the
+ * order they were queued.
+ *
+ * The cap can be adjusted automatically with an {@link AdaptiveLimit}.
+ *
+ * A scheduler is meant to be shared between all builders that run on the same machine.
+ */
+public class LaunchScheduler {
+
+    /** The priority classes, in the order in which queued launches are admitted */
+    public enum Priority {
+        INTERACTIVE, NORMAL, BULK
+    }
+
+    static final String DEFAULT_TENANT = "";
+
+    private int maxConcurrent;
+    private AdaptiveLimit adaptiveLimit;
+    private final int maxQueued;
+    private int running;
+    private int queued;
+    private final Map<Priority, LinkedHashMap<String, Deque<Waiter>>> queues = new EnumMap<>(Priority.class);
+
+    private final Map<Priority, WaitStatistics> waits = new EnumMap<>(Priority.class);
+    private long rejected;
+
+    /**
+     * @param maxConcurrent the number of processes that may run at the same time
+     * @param maxQueued the number of launches that may wait for a slot
+     */
+    public LaunchScheduler(int maxConcurrent, int maxQueued) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("At least one process needs to be able to run.");
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new LinkedHashMap<String, Deque<Waiter>>());
+            waits.put(priority, new WaitStatistics());
+        }
+    }
+
+    /** Adjust the number of processes that may run at the same time to the observed execution
+     * times and the load of the machine. The cap given to the constructor no longer applies.
+     * @param limit the limit, which must not be shared with other schedulers
+     * @return this, for chaining */
+    public synchronized LaunchScheduler withAdaptiveLimit(AdaptiveLimit limit) {
+        this.adaptiveLimit = limit;
+        this.maxConcurrent = limit.getLimit();
+        admitWaiters();
+        return this;
+    }
+
+    /** @return the number of processes currently holding a slot */
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    /** @return the number of launches currently waiting for a slot */
+    public synchronized int getQueuedCount() {
+        return queued;
+    }
+
+    /** @return the number of launches that have been rejected because the queue was full */
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    /** @param priority the priority class
+     * @return the number of launches of the priority that have been admitted */
+    public synchronized long getAdmittedCount(Priority priority) {
+        return waits.get(priority).admitted;
+    }
+
+    /** @param priority the priority class
+     * @return the total time launches of the priority have waited for a slot, in milliseconds */
+    public synchronized long getTotalWaitTime(Priority priority) {
+        return waits.get(priority).totalWaitTime;
+    }
+
+    /** @param priority the priority class
+     * @return the longest time a launch of the priority has waited for a slot, in milliseconds */
+    public synchronized long getMaxWaitTime(Priority priority) {
+        return waits.get(priority).maxWaitTime;
+    }
+
+    /** @return the number of processes that may run at the same time */
+    public synchronized int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /** Wait for a slot.
+     * @param timeout the time to wait at most in milliseconds, or null to wait indefinitely
+     * @param control gives up waiting when termination gets requested, may be null
+     * @throws LaunchRejectedException if the queue is full
+     * @throws TimeoutException if no slot became available within the timeout
+     * @throws CancellationException if termination got requested while waiting */
+    void acquire(Priority priority, String tenant, String commandLine, Long timeout, ProcControl control) {
+        long start = System.currentTimeMillis();
+        final Waiter waiter = enqueue(priority, tenant, commandLine);
+        if (waiter == null) {
+            return;
+        }
+        if (control != null) {
+            // Attached outside of the lock, as the control calls back into the scheduler while holding its own.
+            control.attach(new EventSink() {
+                public void dispatch(ExecutionEvent event) {
+                    cancel(waiter);
+                }
+            });
+        }
+        await(waiter, priority, tenant, commandLine, timeout, start);
+    }
+
+    /** @return the waiter to wait for, or null if the launch has been admitted right away */
+    private synchronized Waiter enqueue(Priority priority, String tenant, String commandLine) {
+        if (queued == 0 && running < maxConcurrent) {
+            running++;
+            admitted(priority, 0);
+            return null;
+        }
+        if (queued >= maxQueued) {
+            rejected++;
+            throw new LaunchRejectedException(commandLine, queued);
+        }
+
+        Waiter waiter = new Waiter();
+        Deque<Waiter> tenantQueue = queues.get(priority).get(tenant);
+        if (tenantQueue == null) {
+            tenantQueue = new ArrayDeque<>();
+            queues.get(priority).put(tenant, tenantQueue);
+        }
+        tenantQueue.add(waiter);
+        queued++;
+        return waiter;
+    }
+
+    private synchronized void await(Waiter waiter, Priority priority, String tenant, String commandLine, Long timeout, long start) {
+        try {
+            while (!waiter.admitted && !waiter.cancelled) {
+                if (timeout == null) {
+                    wait();
+                } else {
+                    long remaining = start + timeout - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    wait(remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            if (waiter.admitted) {
+                release(-1);
+            } else {
+                dequeue(waiter, priority, tenant);
+            }
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to launch '" + commandLine + "'.", e);
+        }
+        if (!waiter.admitted) {
+            dequeue(waiter, priority, tenant);
+            if (waiter.cancelled) {
+                throw new CancellationException("The launch of '" + commandLine + "' got cancelled while waiting for a slot.");
+            }
+            throw new TimeoutException("Process '" + commandLine + "' timed out after " + timeout + "ms waiting for a slot.");
+        }
+        admitted(priority, System.currentTimeMillis() - start);
+    }
+
+    private synchronized void cancel(Waiter waiter) {
+        waiter.cancelled = true;
+        notifyAll();
+    }
+
+    private void dequeue(Waiter waiter, Priority priority, String tenant) {
+        Deque<Waiter> tenantQueue = queues.get(priority).get(tenant);
+        tenantQueue.remove(waiter);
+        if (tenantQueue.isEmpty()) {
+            queues.get(priority).remove(tenant);
+        }
+        queued--;
+    }
+
+    /** @param executionTime the execution time of the process in milliseconds, or -1 if it failed to complete */
+    synchronized void release(long executionTime) {
+        boolean saturated = running >= maxConcurrent;
+        running--;
+        if (adaptiveLimit != null) {
+            maxConcurrent = adaptiveLimit.update(executionTime, saturated);
+        }
+        admitWaiters();
+    }
+
+    private void admitWaiters() {
+        boolean admittedAny = false;
+        while (running < maxConcurrent && queued > 0) {
+            next().admitted = true;
+            running++;
+            queued--;
+            admittedAny = true;
+        }
+        if (admittedAny) {
+            notifyAll();
+        }
+    }
+
+    private Waiter next() {
+        for (Priority priority : Priority.values()) {
+            Iterator<Map.Entry<String, Deque<Waiter>>> tenants = queues.get(priority).entrySet().iterator();
+            if (tenants.hasNext()) {
+                // Move the tenant to the back, so that the others get their turn first.
+                Map.Entry<String, Deque<Waiter>> tenant = tenants.next();
+                String name = tenant.getKey();
+                Deque<Waiter> waiters = tenant.getValue();
+                tenants.remove();
+                Waiter waiter = waiters.poll();
+                if (!waiters.isEmpty()) {
+                    queues.get(priority).put(name, waiters);
+                }
+                return waiter;
+            }
+        }
+        throw new IllegalStateException("No launches are queued.");
+    }
+
+    private void admitted(Priority priority, long waitTime) {
+        WaitStatistics statistics = waits.get(priority);
+        statistics.admitted++;
+        statistics.totalWaitTime += waitTime;
+        statistics.maxWaitTime = Math.max(statistics.maxWaitTime, waitTime);
+    }
+
+    private static class WaitStatistics {
+        private long admitted;
+        private long totalWaitTime;
+        private long maxWaitTime;
+    }
+
+    private static class Waiter {
+        private boolean admitted;
+        private boolean cancelled;
+    }
+}
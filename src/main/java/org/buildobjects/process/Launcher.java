@@ -0,0 +1,279 @@
+package org.buildobjects.process;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Entry point of the launcher process used by {@link ProcessLauncher}. The launcher spawns processes
+ * on behalf of its parent and relays their streams and exit values. It talks to the parent through its
+ * standard input and output, using frames that consist of a type, the id of the process and a payload.
+ * When its standard input gets closed, the launcher kills the remaining processes and exits.
+ *
+ * The streams of the processes are flow controlled: the sending side of a stream may have at most
+ * {@link #WINDOW} bytes in flight that the receiving side hasn't consumed yet, which the receiving
+ * side acknowledges with credit frames. So neither JVM buffers more than that per stream, and a
+ * process whose output isn't read blocks on its pipe without holding up the frames of the others.
+ */
+class Launcher {
+    static final byte SPAWN = 1;
+    static final byte STDIN = 2;
+    static final byte CLOSE = 3;
+    static final byte KILL = 4;
+    static final byte STARTED = 5;
+    static final byte FAILED = 6;
+    static final byte STDOUT = 7;
+    static final byte STDERR = 8;
+    static final byte EXIT = 9;
+    static final byte CREDIT = 10;
+
+    /** The number of bytes per stream that may be in flight */
+    static final int WINDOW = 64 * 1024;
+    /** The maximum number of bytes per frame */
+    static final int CHUNK_SIZE = 8192;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] END = new byte[0];
+
+    private final DataOutputStream out;
+    private final Map<Integer, Child> children = new ConcurrentHashMap<Integer, Child>();
+
+    Launcher(DataOutputStream out) {
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        // Standard output carries the protocol, anything else printed by accident goes to standard error.
+        System.setOut(System.err);
+        new Launcher(out).serve(new DataInputStream(new BufferedInputStream(System.in)));
+        System.exit(0);
+    }
+
+    void serve(DataInputStream in) {
+        try {
+            while (true) {
+                byte type = in.readByte();
+                int id = in.readInt();
+                if (type == SPAWN) {
+                    spawn(id, in);
+                    continue;
+                }
+                byte[] data = type == STDIN || type == CREDIT ? readBytes(in) : null;
+                Child child = children.get(id);
+                if (child == null) {
+                    continue;
+                }
+                if (type == STDIN) {
+                    child.input.add(data);
+                } else if (type == CLOSE) {
+                    child.input.add(END);
+                } else if (type == KILL) {
+                    child.process.destroy();
+                } else if (type == CREDIT) {
+                    ByteBuffer credit = ByteBuffer.wrap(data);
+                    byte stream = credit.get();
+                    (stream == STDOUT ? child.stdout : child.stderr).release(credit.getInt());
+                }
+            }
+        } catch (IOException e) {
+            // The parent went away.
+        } finally {
+            for (Child child : children.values()) {
+                child.process.destroy();
+            }
+        }
+    }
+
+    private void spawn(int id, DataInputStream in) throws IOException {
+        List<String> command = new ArrayList<String>();
+        for (int i = in.readInt(); i > 0; i--) {
+            command.add(readString(in));
+        }
+        boolean clearEnvironment = in.readBoolean();
+        ProcessBuilder builder = new ProcessBuilder(command);
+        if (clearEnvironment) {
+            builder.environment().clear();
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            builder.environment().put(readString(in), readString(in));
+        }
+        if (in.readBoolean()) {
+            builder.directory(new File(readString(in)));
+        }
+
+        Process process;
+        try {
+            process = builder.start();
+        } catch (IOException e) {
+            send(FAILED, id, String.valueOf(e.getMessage()).getBytes(UTF_8));
+            return;
+        }
+        Child child = new Child(id, process);
+        children.put(id, child);
+        send(STARTED, id, ByteBuffer.allocate(8).putLong(ProcFs.pid(process)).array());
+        child.start();
+    }
+
+    private void send(byte type, int id, byte[] data) {
+        try {
+            synchronized (out) {
+                writeFrame(out, type, id, data);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The parent went away, the main loop takes care of the cleanup.
+        }
+    }
+
+    static void writeFrame(DataOutputStream out, byte type, int id, byte[] data) throws IOException {
+        out.writeByte(type);
+        out.writeInt(id);
+        if (data != null) {
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return data;
+    }
+
+    static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] data = string.getBytes(UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), UTF_8);
+    }
+
+    /** @return the payload of a credit frame */
+    static byte[] credit(byte stream, int bytes) {
+        return ByteBuffer.allocate(5).put(stream).putInt(bytes).array();
+    }
+
+    /** The bytes of a stream the sending side may still send before it has to wait for credit */
+    static class Window {
+        private int available = WINDOW;
+        private boolean closed;
+
+        /** @return false if the window has been closed, so that nothing may be sent anymore */
+        synchronized boolean acquire(int bytes) throws InterruptedException {
+            while (available < bytes && !closed) {
+                wait();
+            }
+            available -= bytes;
+            return !closed;
+        }
+
+        synchronized void release(int bytes) {
+            available += bytes;
+            notifyAll();
+        }
+
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+    }
+
+    private class Child {
+        final int id;
+        final Process process;
+        // Holds no more than a window of input, as the parent waits for credit.
+        final BlockingQueue<byte[]> input = new LinkedBlockingQueue<byte[]>();
+        final Window stdout = new Window();
+        final Window stderr = new Window();
+        // The exit and the ends of both output streams, the parent sends credit until they have been relayed.
+        private int pending = 3;
+
+        Child(int id, Process process) {
+            this.id = id;
+            this.process = process;
+        }
+
+        void start() {
+            relay(STDOUT, process.getInputStream(), stdout);
+            relay(STDERR, process.getErrorStream(), stderr);
+            daemon(new Runnable() {
+                public void run() {
+                    feed();
+                }
+            });
+            daemon(new Runnable() {
+                public void run() {
+                    try {
+                        int exitValue = process.waitFor();
+                        input.add(END);
+                        send(EXIT, id, ByteBuffer.allocate(4).putInt(exitValue).array());
+                        relayed();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException("", e);
+                    }
+                }
+            });
+        }
+
+        private void feed() {
+            OutputStream stdin = process.getOutputStream();
+            try {
+                for (byte[] data = input.take(); data != END; data = input.take()) {
+                    try {
+                        stdin.write(data);
+                        stdin.flush();
+                    } catch (IOException e) {
+                        // The process doesn't read its input (anymore), like with a direct spawn
+                        // the rest of the input gets discarded.
+                    }
+                    send(CREDIT, id, credit(STDIN, data.length));
+                }
+                stdin.close();
+            } catch (InterruptedException | IOException e) {
+                // Nothing left to feed.
+            }
+        }
+
+        private void relay(final byte type, final InputStream stream, final Window window) {
+            daemon(new Runnable() {
+                public void run() {
+                    byte[] buffer = new byte[CHUNK_SIZE];
+                    try {
+                        for (int n = stream.read(buffer); n != -1; n = stream.read(buffer)) {
+                            byte[] data = new byte[n];
+                            System.arraycopy(buffer, 0, data, 0, n);
+                            if (window.acquire(n)) {
+                                send(type, id, data);
+                            }
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        // Treat like the end of the stream.
+                    }
+                    send(type, id, END);
+                    relayed();
+                }
+            });
+        }
+
+        private synchronized void relayed() {
+            if (--pending == 0) {
+                children.remove(id);
+            }
+        }
+
+        private void daemon(Runnable runnable) {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.buildobjects.process;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import static org.buildobjects.process.ExecutionEvent.TERMINATION_REQUESTED;
+
+/**
+ * Scans the data passing through for lines matching any of the given patterns. Lines are
+ * assembled across read boundaries, so the matching doesn't depend on how the data is chunked.
+ * Lines longer than {@link #MAX_LINE_LENGTH} bytes are only matched against their beginning.
+ */
+class LineMatchingInputStream extends FilterInputStream {
+    static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final List<LinePattern> patterns;
+    private final Charset charset;
+    private final EventSink eventSink;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private boolean terminationRequested;
+
+    LineMatchingInputStream(InputStream in, List<LinePattern> patterns, Charset charset, EventSink eventSink) {
+        super(in);
+        this.patterns = patterns;
+        this.charset = charset;
+        this.eventSink = eventSink;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            endOfStream();
+        } else {
+            scan((byte) b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n == -1) {
+            endOfStream();
+        }
+        for (int i = off; i < off + n; i++) {
+            scan(b[i]);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(n, 4096)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void scan(byte b) {
+        if (b == '\n') {
+            endOfLine();
+        } else if (line.size() < MAX_LINE_LENGTH) {
+            line.write(b);
+        }
+    }
+
+    private void endOfStream() {
+        if (line.size() > 0) {
+            endOfLine();
+        }
+    }
+
+    private void endOfLine() {
+        if (terminationRequested) {
+            line.reset();
+            return;
+        }
+        String text = new String(line.toByteArray(), charset);
+        line.reset();
+        if (text.endsWith("\r")) {
+            text = text.substring(0, text.length() - 1);
+        }
+
+        for (LinePattern linePattern : patterns) {
+            Matcher matcher = linePattern.pattern.matcher(text);
+            if (matcher.find() && linePattern.handler.matched(text, matcher.toMatchResult())) {
+                terminationRequested = true;
+                eventSink.dispatch(TERMINATION_REQUESTED);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package org.buildobjects.process;
+
+import java.util.regex.Pattern;
+
+class LinePattern {
+    final Pattern pattern;
+    final MatchHandler handler;
+
+    LinePattern(Pattern pattern, MatchHandler handler) {
+        this.pattern = pattern;
+        this.handler = handler;
+    }
+}
@@ -0,0 +1,27 @@
+package org.buildobjects.process;
+
+import java.util.regex.MatchResult;
+
+/**
+ * Gets notified when a line of output matches a pattern registered with
+ * {@link ProcBuilder#withOutputPattern(java.util.regex.Pattern, MatchHandler)} or
+ * {@link ProcBuilder#withErrorPattern(java.util.regex.Pattern, MatchHandler)}.
+ */
+public interface MatchHandler {
+
+    /** Terminates the process on the first match. */
+    MatchHandler TERMINATE = new MatchHandler() {
+        public boolean matched(String line, MatchResult match) {
+            return true;
+        }
+    };
+
+    /**
+     * Gets called from the thread consuming the stream, for every line that matches.
+     *
+     * @param line the matching line, without the line terminator
+     * @param match the result of finding the pattern in the line
+     * @return true to terminate the process, false to let it continue
+     */
+    boolean matched(String line, MatchResult match);
+}
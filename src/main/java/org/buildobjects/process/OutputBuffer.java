@@ -0,0 +1,130 @@
+package org.buildobjects.process;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * A bounded, off-heap buffer between the pipe of the process and the consumer of its output, see
+ * {@link ProcBuilder#withOutputBuffer(OutputBuffer)}. A separate thread keeps reading the pipe into
+ * the buffer, so the process doesn't block while the consumer is slow, until the buffer fills up to its
+ * high watermark. Reading then pauses until the consumer has drained the buffer to its low watermark.
+ *
+ * The metrics show where backpressure occurs: stalls of the producer mean that the consumer can't keep
+ * up, waits of the consumer mean that the process doesn't deliver fast enough. They accumulate over all
+ * runs using the buffer. The memory of the buffer is retained between runs, concurrent runs allocate
+ * additional memory.
+ */
+public class OutputBuffer {
+    private final int capacity;
+    private int highWatermark;
+    private int lowWatermark;
+
+    private final AtomicReference<ByteBuffer> spare = new AtomicReference<ByteBuffer>();
+    private final AtomicLong occupancy = new AtomicLong();
+    private final AtomicLong peakOccupancy = new AtomicLong();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+    private final AtomicLong producerStalls = new AtomicLong();
+    private final AtomicLong producerStallTime = new AtomicLong();
+    private final AtomicLong consumerWaitTime = new AtomicLong();
+
+    /** Create a buffer that pauses reading when full and resumes when half empty
+     * @param capacity the capacity in bytes */
+    public OutputBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive.");
+        }
+        this.capacity = capacity;
+        this.highWatermark = capacity;
+        this.lowWatermark = capacity / 2;
+    }
+
+    /** @param high occupancy in bytes at which reading from the pipe pauses, at most the capacity
+     * @param low occupancy in bytes at which reading from the pipe resumes, less than the high watermark
+     * @return this, for chaining */
+    public OutputBuffer withWatermarks(int high, int low) {
+        if (high > capacity || high <= 0 || low < 0 || low >= high) {
+            throw new IllegalArgumentException("Watermarks must satisfy 0 <= low < high <= capacity.");
+        }
+        this.highWatermark = high;
+        this.lowWatermark = low;
+        return this;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    /** @return the bytes currently buffered, over all runs in progress */
+    public long getOccupancy() {
+        return occupancy.get();
+    }
+
+    /** @return the maximum number of bytes that have been buffered at the same time */
+    public long getPeakOccupancy() {
+        return peakOccupancy.get();
+    }
+
+    /** @return the bytes that have passed through the buffer */
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    /** @return how often reading from the pipe paused because the buffer reached its high watermark */
+    public long getProducerStalls() {
+        return producerStalls.get();
+    }
+
+    /** @return the time reading from the pipe was paused in milliseconds */
+    public long getProducerStallTime() {
+        return NANOSECONDS.toMillis(producerStallTime.get());
+    }
+
+    /** @return the time the consumer waited for output in milliseconds */
+    public long getConsumerWaitTime() {
+        return NANOSECONDS.toMillis(consumerWaitTime.get());
+    }
+
+    ByteBuffer acquire() {
+        ByteBuffer ring = spare.getAndSet(null);
+        return ring != null ? ring : ByteBuffer.allocateDirect(capacity);
+    }
+
+    void release(ByteBuffer ring) {
+        ring.clear();
+        spare.set(ring);
+    }
+
+    void buffered(int bytes) {
+        long current = occupancy.addAndGet(bytes);
+        for (long peak = peakOccupancy.get(); current > peak; peak = peakOccupancy.get()) {
+            if (peakOccupancy.compareAndSet(peak, current)) {
+                break;
+            }
+        }
+    }
+
+    void consumed(int bytes) {
+        occupancy.addAndGet(-bytes);
+        bytesTransferred.addAndGet(bytes);
+    }
+
+    void producerStalled(long nanos) {
+        producerStalls.incrementAndGet();
+        producerStallTime.addAndGet(nanos);
+    }
+
+    void consumerWaited(long nanos) {
+        consumerWaitTime.addAndGet(nanos);
+    }
+}
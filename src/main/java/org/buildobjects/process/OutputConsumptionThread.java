@@ -7,7 +7,8 @@ interface OutputConsumptionThread {
 
     void startConsumption(InputStream inputStream);
 
-    void join() throws InterruptedException;
+    /** @param millis the time to wait at most, 0 to wait until the consumption has finished */
+    void join(long millis) throws InterruptedException;
 
     void interrupt();
 
@@ -0,0 +1,72 @@
+package org.buildobjects.process;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Publishes the standard output of a process. Every subscription runs the process anew, as a task
+ * of the executor. The subscriber gets its subscription right away, so that it is subscribed even if
+ * the process can't be started, and gets completed once the process has exited successfully, or
+ * receives the exception {@link ProcBuilder#run()} would have thrown. Cancelling the subscription
+ * terminates the process.
+ *
+ * The pipes of a {@link Process} can only be read by blocking, so while the process runs, each
+ * subscription occupies a thread of the executor and the thread pumping the output, which waits
+ * for demand rather than for the pipe once the subscriber falls behind.
+ */
+class OutputPublisher implements Flow.Publisher<ByteBuffer> {
+    /** Runs the subscriptions if no executor is given, on daemon threads that are kept for reuse */
+    static final ExecutorService defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "jproc-output-publisher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final ProcBuilder builder;
+    private final Executor executor;
+
+    OutputPublisher(ProcBuilder builder, Executor executor) {
+        this.builder = builder;
+        this.executor = executor;
+    }
+
+    public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+        final ProcControl control = new ProcControl();
+        final SubscriberConsumer consumer = new SubscriberConsumer(subscriber, false) {
+            @Override
+            public synchronized void cancel() {
+                super.cancel();
+                control.terminate();
+            }
+        };
+        // Before the process runs, as the subscriber must be subscribed before it gets an error.
+        consumer.subscribe();
+        executor.execute(new Runnable() {
+            public void run() {
+                if (consumer.isCancelled()) {
+                    Throwable error = consumer.invalidRequest();
+                    if (error != null) {
+                        subscriber.onError(error);
+                    }
+                    return;
+                }
+                try {
+                    builder.run(consumer, control);
+                } catch (RuntimeException e) {
+                    if (!consumer.isCancelled()) {
+                        subscriber.onError(e);
+                    }
+                    return;
+                }
+                if (!consumer.isCancelled()) {
+                    subscriber.onComplete();
+                }
+            }
+        });
+    }
+}
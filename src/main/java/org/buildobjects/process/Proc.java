@@ -2,7 +2,7 @@ package org.buildobjects.process;
 
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.nio.charset.Charset;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.regex.Matcher;
@@ -11,8 +11,11 @@ import java.util.regex.Pattern;
 import static java.lang.Integer.MAX_VALUE;
 import static java.util.concurrent.TimeUnit.HOURS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.buildobjects.process.ExecutionEvent.CPU_TIME_EXCEEDED;
 import static org.buildobjects.process.ExecutionEvent.EXCEPTION_IN_STREAM_HANDLING;
+import static org.buildobjects.process.ExecutionEvent.IDLE_TIMEOUT_EXCEEDED;
 import static org.buildobjects.process.ExecutionEvent.PROCESS_EXITED;
+import static org.buildobjects.process.ExecutionEvent.TERMINATION_REQUESTED;
 
 
 /**
@@ -20,10 +23,19 @@ import static org.buildobjects.process.ExecutionEvent.PROCESS_EXITED;
  */
 class Proc implements EventSink {
 
+    /** How long the output of a terminated process gets drained at most */
+    static final long TERMINATION_GRACE_MILLIS = 1000;
+
     private final Process process;
     private int exitValue;
 
     private long executionTime;
+    private long spawnTime;
+    private ResourceSampler sampler;
+    private ResourceUsage resourceUsage;
+    private CpuTimeWatchdog watchdog;
+    private IdleWatchdog idleWatchdog;
+    private final ProcNotifier notifier;
 
     private final OutputConsumptionThread err;
     private final String command;
@@ -31,77 +43,149 @@ class Proc implements EventSink {
     private final Long timeout;
     private final BlockingQueue<ExecutionEvent> eventQueue = new LinkedBlockingQueue<ExecutionEvent>();
     private final IoHandler ioHandler;
+    private final Charset charset;
+    private boolean terminated;
 
-    public Proc(String command,
-                List<String> args,
-                Map<String, String> env,
-                boolean clearEnvironment,
-                InputStream stdin,
-                Object stdout,
-                File directory,
-                Long timeout,
-                Object stderr)
+    public Proc(ProcConfig config)
             throws StartupException, TimeoutException, ExternalProcessFailureException {
 
-        this.command = command;
-        this.args = args;
-        this.timeout = timeout;
-        String[] cmdArray = concatenateCmdArgs();
+        this.command = config.command;
+        this.args = config.args;
+        this.timeout = config.timeout;
+        this.charset = config.charset;
+        ProgressTracker progress = config.progress;
+        String[] cmdArray = concatenateCmdArgs(config.commandPrefix);
+        notifier = config.notifier;
         long t1 = System.currentTimeMillis();
 
         OutputConsumptionThread stdoutConsumer;
 
         try {
             ProcessBuilder builder = new ProcessBuilder(cmdArray)
-                    .directory(directory);
+                    .directory(config.directory);
 
-            if (clearEnvironment) {
+            if (config.clearEnvironment) {
                 builder.environment().clear();
             }
 
-            builder.environment().putAll(env);
-            process = builder.start();
+            builder.environment().putAll(config.env);
+            if (notifier != null) {
+                notifier.beforeStart();
+            }
+            long spawnStart = System.nanoTime();
+            if (config.launcher != null) {
+                process = config.launcher.start(cmdArray, config.env, config.clearEnvironment, config.directory);
+            } else {
+                LaunchMechanism.processStarting();
+                process = builder.start();
+            }
+            spawnTime = System.nanoTime() - spawnStart;
+        } catch (IOException e) {
+            throw new StartupException("Could not startup process '" + toString() + "'.", e);
+        }
 
-            stdoutConsumer = createStreamConsumer(stdout);
+        try {
+            FlightRecorderEvents.spawned(this, spawnTime);
+            if (notifier != null) {
+                notifier.started(spawnTime);
+            }
+            if (config.measureResourceUsage) {
+                sampler = ResourceSampler.start(process);
+            }
+            if (config.cpuTimeout != null) {
+                watchdog = CpuTimeWatchdog.start(process, config.cpuTimeout, this);
+            }
+
+            stdoutConsumer = createStreamConsumer(config.stdout);
 
-            if (stderr == null) {
-                err = new ByteArrayConsumptionThread(this);
+            if (config.stderr == null) {
+                err = new ByteArrayConsumptionThread(this, config.compressCapture ? new CompressedByteArrayOutputStream() : new ByteArrayOutputStream());
             } else {
-                err = createStreamConsumer(stderr);
+                err = createStreamConsumer(config.stderr);
             }
 
 
-            ioHandler = new IoHandler(stdin, stdoutConsumer, err, process);
+            if (config.idleTimeout != null) {
+                idleWatchdog = new IdleWatchdog(config.idleTimeout, this);
+            }
+            ioHandler = new IoHandler(config, stdoutConsumer, err, process, this, idleWatchdog, notifier);
+            if (idleWatchdog != null) {
+                idleWatchdog.start();
+            }
+            if (progress != null) {
+                progress.start();
+            }
 
-        } catch (IOException e) {
-            throw new StartupException("Could not startup process '" + toString() + "'.", e);
+        } catch (RuntimeException | Error e) {
+            process.destroy();
+            stopMonitoring(progress);
+            throw e;
         }
 
         try {
             startControlThread();
+            if (config.control != null) {
+                config.control.attach(this);
+            }
 
             do {
-                ExecutionEvent nextEvent = timeout == null ? eventQueue.poll(MAX_VALUE, HOURS) : eventQueue.poll(timeout, MILLISECONDS);
+                ExecutionEvent nextEvent = timeout == null ? eventQueue.poll(MAX_VALUE, HOURS) : eventQueue.poll(t1 + timeout - System.currentTimeMillis(), MILLISECONDS);
 
                 if (nextEvent == null) {
                     killCleanUpAndThrowTimeoutException();
                 }
 
                 if (nextEvent == PROCESS_EXITED) {
+                    FlightRecorderEvents.exited(this, exitValue, System.currentTimeMillis() - t1);
+                    if (notifier != null) {
+                        notifier.exited(exitValue);
+                    }
                     break;
                 }
 
                 if (nextEvent == EXCEPTION_IN_STREAM_HANDLING) {
+                    if (terminated) {
+                        // The pipes may get closed while the process is going down, keep draining the others.
+                        continue;
+                    }
                     killProcessCleanup();
                     break;
                 }
 
+                if (nextEvent == TERMINATION_REQUESTED) {
+                    // Keep draining the output until the process has actually exited.
+                    terminated = true;
+                    process.destroy();
+                    FlightRecorderEvents.killed(this);
+                    if (notifier != null) {
+                        notifier.killed();
+                    }
+                    continue;
+                }
+
+                if (nextEvent == CPU_TIME_EXCEEDED) {
+                    watchdog.killTree();
+                    killProcessCleanup();
+                    throw timedOut(new CpuTimeoutException(toString(), config.cpuTimeout, watchdog.getCpuTime()));
+                }
+
+                if (nextEvent == IDLE_TIMEOUT_EXCEEDED) {
+                    killProcessCleanup();
+                    throw timedOut(new IdleTimeoutException(toString(), config.idleTimeout));
+                }
+
                 throw new RuntimeException("Felix reckons we should never reach this point");
             } while (true);
 
-            List<Throwable> exceptions = ioHandler.joinConsumption();
-            if (!exceptions.isEmpty()) {
-                throw new IllegalStateException("Exception in stream consumption", exceptions.get(0));
+            // Children of a terminated process may keep its pipes open, so the output gets drained for a while only.
+            List<Throwable> exceptions = ioHandler.joinConsumption(terminated ? TERMINATION_GRACE_MILLIS : 0);
+            for (Throwable exception : exceptions) {
+                if (!terminated || !causedByTermination(exception)) {
+                    throw new IllegalStateException("Exception in stream consumption", exception);
+                }
+            }
+            if (notifier != null) {
+                notifier.drained();
             }
 
             executionTime = System.currentTimeMillis() - t1;
@@ -110,6 +194,23 @@ class Proc implements EventSink {
         } catch (InterruptedException e) {
             killProcessCleanup();
             throw new RuntimeException("Control Thread was interrupted killed process.", e);
+        } finally {
+            stopMonitoring(progress);
+        }
+    }
+
+    private void stopMonitoring(ProgressTracker progress) {
+        if (watchdog != null) {
+            watchdog.stop();
+        }
+        if (idleWatchdog != null) {
+            idleWatchdog.stop();
+        }
+        if (sampler != null) {
+            resourceUsage = sampler.stop();
+        }
+        if (progress != null) {
+            progress.stop();
         }
     }
 
@@ -123,17 +224,17 @@ class Proc implements EventSink {
         }
     }
 
-    byte[] getErrorBytes() {
+    ByteArrayOutputStream getErrorOutput() {
         if (err instanceof ByteArrayConsumptionThread) {
-            return ((ByteArrayConsumptionThread) err).getBytes();
+            return ((ByteArrayConsumptionThread) err).getOutput();
         }
         // Output stream/stream consumer was provided by user, we don't own it.
         return null;
     }
 
     public String getErrorString() {
-        byte[] bytes = getErrorBytes();
-        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+        ByteArrayOutputStream output = getErrorOutput();
+        return output != null ? Helper.decode(output.toByteArray(), charset) : null;
     }
 
     private void startControlThread() {
@@ -141,9 +242,17 @@ class Proc implements EventSink {
             public void run() {
                 try {
                     exitValue = process.waitFor();
-                    dispatch(PROCESS_EXITED);
                 } catch (InterruptedException e) {
                     throw new RuntimeException("", e);
+                } finally {
+                    try {
+                        if (sampler != null) {
+                            // The process has been reaped, its pid may get reused by an unrelated process.
+                            sampler.processExited();
+                        }
+                    } finally {
+                        dispatch(PROCESS_EXITED);
+                    }
                 }
             }
         }).start();
@@ -152,12 +261,43 @@ class Proc implements EventSink {
     private void killCleanUpAndThrowTimeoutException() {
         process.destroy();
         ioHandler.cancelConsumption();
-        throw new TimeoutException(toString(), timeout);
+        FlightRecorderEvents.killed(this);
+        if (notifier != null) {
+            notifier.killed();
+        }
+        throw timedOut(new TimeoutException(toString(), timeout));
     }
 
     private void killProcessCleanup() {
         process.destroy();
         ioHandler.cancelConsumption();
+        FlightRecorderEvents.killed(this);
+        if (notifier != null) {
+            notifier.killed();
+        }
+    }
+
+    private TimeoutException timedOut(TimeoutException exception) {
+        FlightRecorderEvents.timedOut(this, exception);
+        if (notifier != null) {
+            notifier.timedOut(exception);
+        }
+        return exception;
+    }
+
+    /** @return true if the exception is one that terminating a process causes while its streams get handled,
+     * i.e. an interruption or a closed pipe */
+    private static boolean causedByTermination(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException || cause instanceof InterruptedIOException) {
+                return true;
+            }
+            if (cause instanceof IOException
+                && ("Stream closed".equalsIgnoreCase(cause.getMessage()) || "Broken pipe".equalsIgnoreCase(cause.getMessage()))) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public void dispatch(ExecutionEvent event) {
@@ -168,8 +308,8 @@ class Proc implements EventSink {
         }
     }
 
-    private String[] concatenateCmdArgs() {
-        List<String> cmd = new ArrayList<String>();
+    private String[] concatenateCmdArgs(List<String> commandPrefix) {
+        List<String> cmd = new ArrayList<String>(commandPrefix);
         cmd.add(command);
         cmd.addAll(args);
         return cmd.toArray(new String[cmd.size()]);
@@ -217,4 +357,19 @@ class Proc implements EventSink {
     public long getExecutionTime() {
         return executionTime;
     }
+
+    /** @return the time it took to launch the process in nanoseconds */
+    public long getSpawnTime() {
+        return spawnTime;
+    }
+
+    /** @return the resources used by the process, or null if they have not been measured */
+    public ResourceUsage getResourceUsage() {
+        return resourceUsage;
+    }
+
+    /** @return true if the process got terminated on request, rather than exiting by itself */
+    public boolean isTerminated() {
+        return terminated;
+    }
 }
@@ -1,7 +1,17 @@
 package org.buildobjects.process;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
 
 import static java.util.Arrays.asList;
 import static org.buildobjects.process.Helper.asSet;
@@ -18,7 +28,7 @@ public class ProcBuilder {
     private final Map<String, String> env = new HashMap<>();
 
     private OutputStream stdout = defaultStdout;
-    private InputStream stdin;
+    private Object stdin;
     private OutputStream stderr;
 
     private Long timoutMillis = 5000L;
@@ -31,6 +41,33 @@ public class ProcBuilder {
     private StreamConsumer errorConsumer;
     private boolean clearEnvironment;
 
+    private final List<LinePattern> outputPatterns = new ArrayList<>();
+    private final List<LinePattern> errorPatterns = new ArrayList<>();
+    private boolean compressCapture;
+    private Charset charset = Charset.defaultCharset();
+    // Failure messages have always shown the output as UTF-8, unless told otherwise.
+    private Charset failureCharset = StandardCharsets.UTF_8;
+
+    private ProcResultCache resultCache;
+    private List<File> cacheInputFiles;
+    private boolean coalesce;
+    private ProcessLauncher launcher;
+    private boolean measureResourceUsage;
+    private ResourceLimits resourceLimits;
+    private Long cpuTimeoutMillis;
+    private Long idleTimeoutMillis;
+    private OutputBuffer outputBuffer;
+    private RetryPolicy retryPolicy;
+    private HedgingPolicy hedgingPolicy;
+    private LaunchScheduler scheduler;
+    private final List<Tee> outputTees = new ArrayList<Tee>();
+    private final List<Tee> errorTees = new ArrayList<Tee>();
+    private ProgressListener progressListener;
+    private long progressInterval;
+    private final List<ProcListener> listeners = new ArrayList<ProcListener>();
+    private static final List<ProcListener> globalListeners = new CopyOnWriteArrayList<ProcListener>();
+    private LaunchScheduler.Priority priority;
+    private String tenant;
 
     /** Creates a new ProcBuilder
      * @param command The command to run
@@ -94,6 +131,33 @@ public class ProcBuilder {
         return this;
     }
 
+    /** Specify a budget for the CPU time the process and its descendants may consume. Unlike the
+     * wall-clock timeout this is not affected by the load of the machine. The CPU time gets sampled
+     * while the process is running, the process tree gets killed if it exceeds the budget. This is
+     * only supported on Linux.
+     * @param cpuTimeoutMillis the CPU time budget in milliseconds
+     * @return this, for chaining
+     * @throws UnsupportedOperationException if the platform doesn't support measuring the CPU time of processes
+     */
+    public ProcBuilder withCpuTimeoutMillis(long cpuTimeoutMillis) {
+        if (!ProcFs.isAvailable()) {
+            throw new UnsupportedOperationException("CPU time budgets are only supported on Linux.");
+        }
+        this.cpuTimeoutMillis = cpuTimeoutMillis;
+        return this;
+    }
+
+    /** Specify how long the process may go without producing output on stdout or stderr. Hung
+     * processes usually fall silent long before the overall timeout expires. Note that output only
+     * counts once it has been read, so a consumer that stalls makes the process look idle.
+     * @param idleTimeoutMillis the time without output after which the process gets killed
+     * @return this, for chaining
+     */
+    public ProcBuilder withIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
     /** Disable timeout for the operation.
      *
      * @return this, for chaining
@@ -113,12 +177,13 @@ public class ProcBuilder {
         return this;
     }
 
-    /** Supply the input as string
+    /** Supply the input as string. It gets encoded using the charset of the builder.
      * @param input the actual input
      * @return this, for chaining
+     * @see #withCharset(Charset)
      */
     public ProcBuilder withInput(String input) {
-        stdin = new ByteArrayInputStream(input.getBytes());
+        stdin = input;
         return this;
     }
 
@@ -128,7 +193,65 @@ public class ProcBuilder {
      * @return this, for chaining
      */
     public ProcBuilder withInput(byte[] input) {
-        stdin = new ByteArrayInputStream(input);
+        stdin = ByteBuffer.wrap(input);
+        return this;
+    }
+
+    /** Supply the input as ByteBuffer. The remaining bytes of the buffer get fed into the process,
+     * the position of the buffer is not modified. Direct buffers are supported.
+     * @param input the actual input
+     * @return this, for chaining
+     */
+    public ProcBuilder withInput(ByteBuffer input) {
+        stdin = input;
+        return this;
+    }
+
+    /** Take the input for the program from a file channel. The content from the channel's current
+     * position up to its end gets transferred to the process without materializing it in memory. If
+     * the file gets truncated meanwhile, the input ends where the file does.
+     * @param input channel to read the input from
+     * @return this, for chaining
+     */
+    public ProcBuilder withInput(FileChannel input) {
+        stdin = input;
+        return this;
+    }
+
+    /** Supply the input lazily. The elements get encoded using the charset of the builder
+     * and fed into the process one after
+     * the other, without separators. The iterator is only advanced as fast as the process consumes
+     * its input, so the input doesn't have to fit into memory. As the library runs on Java 7, there
+     * is no overload for a {@code Supplier}, wrap it into an iterator instead.
+     * @param input the elements to be fed in
+     * @return this, for chaining
+     */
+    public ProcBuilder withInput(Iterator<? extends CharSequence> input) {
+        stdin = input;
+        return this;
+    }
+
+    /** Supply the input from a publisher. The next buffer gets requested once the previous one
+     * has been written to the process, so the publisher is held back by a process that reads slowly.
+     * The input gets closed when the publisher completes.
+     * @param input the publisher of the input
+     * @return this, for chaining
+     */
+    public ProcBuilder withInput(Flow.Publisher<? extends ByteBuffer> input) {
+        stdin = input;
+        return this;
+    }
+
+    /** Set the charset used for encoding string input and for decoding the output into
+     * strings, including the output reported in an {@link ExternalProcessFailureException}.
+     * If not specified the platform's default charset is used, except for the output in the
+     * message of an {@link ExternalProcessFailureException}, which is decoded as UTF-8.
+     * @param charset the charset the process expects and produces
+     * @return this, for chaining
+     */
+    public ProcBuilder withCharset(Charset charset) {
+        this.charset = charset;
+        this.failureCharset = charset;
         return this;
     }
 
@@ -206,8 +329,107 @@ public class ProcBuilder {
      *
      * @throws StartupException if the process can't be started
      * @throws TimeoutException if the timeout kicked in
-     * @throws ExternalProcessFailureException if the external process returned a non-null exit value*/
+     * @throws CpuTimeoutException if the process exceeded its CPU time budget
+     * @throws IdleTimeoutException if the process didn't produce output for longer than the idle timeout
+     * @throws ExternalProcessFailureException if the external process returned a non-null exit value.
+     *         A process terminated by a {@link MatchHandler} is not checked for its exit value.
+     * @throws ResourceLimitExceededException if the process exceeded one of its {@link ResourceLimits}*/
     public ProcResult run() throws StartupException, TimeoutException, ExternalProcessFailureException {
+        InvocationKey key = resultCache != null ? cacheKey() : null;
+        if (key != null) {
+            ProcResult cached = resultCache.get(key);
+            if (cached != null) {
+                reset();
+                return cached;
+            }
+        }
+
+        ProcResult result = coalesce ? runCoalesced() : run(outputConsumer, null);
+
+        if (key != null) {
+            resultCache.put(key, result);
+        }
+        return result;
+    }
+
+    private ProcResult runCoalesced() {
+        InvocationKey.Builder key = invocationKey();
+        if (key == null || !outputPatterns.isEmpty() || !errorPatterns.isEmpty()) {
+            return run(outputConsumer, null);
+        }
+        key.add(new TreeSet<Integer>(expectedExitStatuses).toString())
+            .add(String.valueOf(timoutMillis))
+            .add(String.valueOf(cpuTimeoutMillis))
+            .add(String.valueOf(idleTimeoutMillis));
+
+        try {
+            return InFlightRuns.run(key.build(), new Callable<ProcResult>() {
+                public ProcResult call() {
+                    return run(outputConsumer, null);
+                }
+            });
+        } finally {
+            reset();
+        }
+    }
+
+    private InvocationKey cacheKey() {
+        InvocationKey.Builder key = invocationKey();
+        if (key == null || !outputPatterns.isEmpty() || !errorPatterns.isEmpty()) {
+            return null;
+        }
+        key.add(new TreeSet<Integer>(expectedExitStatuses).toString());
+        try {
+            return resultCache.key(key, cacheInputFiles);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** @return a key covering the configuration of the process and its input, or null if the
+     *          invocation is not repeatable, e.g. because the input is a stream or the output
+     *          doesn't get captured */
+    InvocationKey.Builder invocationKey() {
+        if (stdout != defaultStdout || outputConsumer != null || stderr != null || errorConsumer != null || !outputTees.isEmpty() || !errorTees.isEmpty()) {
+            return null;
+        }
+
+        List<String> prefix = commandPrefix();
+        InvocationKey.Builder key = new InvocationKey.Builder().add(String.valueOf(prefix.size()));
+        for (String arg : prefix) {
+            key.add(arg);
+        }
+        key.add(command);
+        key.add(String.valueOf(args.size()));
+        for (String arg : args) {
+            key.add(arg);
+        }
+        Map<String, String> sortedEnv = new TreeMap<String, String>(env);
+        key.add(String.valueOf(sortedEnv.size()));
+        for (Map.Entry<String, String> var : sortedEnv.entrySet()) {
+            key.add(var.getKey()).add(var.getValue());
+        }
+        key.add(String.valueOf(clearEnvironment))
+            .add((directory != null ? directory : new File("")).getAbsolutePath())
+            .add(charset.name());
+
+        if (stdin == null) {
+            key.add((ByteBuffer) null);
+        } else if (stdin instanceof ByteBuffer) {
+            key.add((ByteBuffer) stdin);
+        } else if (stdin instanceof CharSequence) {
+            key.add(charset.encode(CharBuffer.wrap((CharSequence) stdin)));
+        } else {
+            return null;
+        }
+        return key;
+    }
+
+    ProcResult run(ProcControl control) {
+        return run(outputConsumer, control);
+    }
+
+    ProcResult run(StreamConsumer outputConsumer, ProcControl control) {
 
         if (stdout != defaultStdout && outputConsumer != null) {
             throw new IllegalArgumentException("`withOutputStream(OutputStream)` and `withOutputConsumer(OutputConsumer)` " +
@@ -220,21 +442,183 @@ public class ProcBuilder {
         }
 
         try {
-            Proc proc = new Proc(command, args, env, clearEnvironment, stdin, outputConsumer != null ? outputConsumer : stdout , directory, timoutMillis, errorConsumer != null ? errorConsumer : stderr);
-
+            if (retryPolicy != null || hedgingPolicy != null) {
+                return runWithPolicies(control);
+            }
             final ByteArrayOutputStream output = defaultStdout == stdout && outputConsumer == null ? defaultStdout : null;
+            return execute(stdin, outputConsumer != null ? outputConsumer : stdout, output, control);
+        } finally {
+            reset();
+        }
+    }
+
+    private ProcResult runWithPolicies(final ProcControl control) {
+        if (invocationKey() == null) {
+            throw new IllegalArgumentException("Retries and hedging require the output to be captured and the input " +
+                "to be given as string, byte[] or ByteBuffer.");
+        }
+        final Object input = stdin;
+        HedgingPolicy.Attempt attempt = new HedgingPolicy.Attempt() {
+            public ProcResult run(ProcControl control) {
+                ByteArrayOutputStream output = newCaptureStream();
+                return execute(input, output, output, control);
+            }
+        };
+
+        for (int attempts = 1; ; attempts++) {
+            try {
+                return hedgingPolicy != null ? hedgingPolicy.execute(attempt, control) : attempt.run(control);
+            } catch (RuntimeException e) {
+                if (retryPolicy == null || !retryPolicy.shouldRetry(e, attempts)) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(retryPolicy.delay(attempts));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /** Spawn the process once and check its exit value, the listeners get told how the run ended.
+     * @param output the stream the output gets captured in, or null if it goes elsewhere */
+    private ProcResult execute(Object input, Object stdout, ByteArrayOutputStream output, ProcControl control) {
+        if (scheduler != null) {
+            scheduler.acquire(priority, tenant, Proc.formatCommandLine(command, args), timoutMillis, control);
+        }
+        ProcConfig config = config(input, stdout, control);
+        Throwable failure = null;
+        try {
+            Proc proc = null;
+            try {
+                proc = new Proc(config);
+            } finally {
+                if (scheduler != null) {
+                    scheduler.release(proc != null && !proc.isTerminated() ? proc.getExecutionTime() : -1);
+                }
+            }
+
+            if (output instanceof CompressedByteArrayOutputStream) {
+                ((CompressedByteArrayOutputStream) output).close();
+            }
 
-            if (expectedExitStatuses.size() > 0 && !expectedExitStatuses.contains(proc.getExitValue())) {
-                throw new ExternalProcessFailureException(command, proc.toString(), proc.getExitValue(), proc.getErrorString(), output, proc.getExecutionTime());
+            if (!proc.isTerminated() && expectedExitStatuses.size() > 0 && !expectedExitStatuses.contains(proc.getExitValue())) {
+                ResourceLimits.Limit limit = resourceLimits != null ? resourceLimits.exceededLimit(proc.getExitValue()) : null;
+                if (limit != null) {
+                    throw new ResourceLimitExceededException(limit, command, proc.toString(), proc.getExitValue(), proc.getErrorString(), output, proc.getExecutionTime(), proc.getResourceUsage(), failureCharset);
+                }
+                throw new ExternalProcessFailureException(command, proc.toString(), proc.getExitValue(), proc.getErrorString(), output, proc.getExecutionTime(), proc.getResourceUsage(), failureCharset);
             }
 
-            return new ProcResult(proc.toString(), output, proc.getExitValue(), proc.getExecutionTime(), proc.getErrorBytes());
+            return new ProcResult(proc.toString(), output, proc.getExitValue(), proc.getExecutionTime(), proc.getSpawnTime(), proc.getResourceUsage(), proc.getErrorOutput(), charset);
+        } catch (RuntimeException | Error e) {
+            failure = e;
+            throw e;
         } finally {
-            stdout = defaultStdout = new ByteArrayOutputStream();
-            stdin = null;
+            if (config.notifier != null) {
+                config.notifier.finished(failure);
+            }
         }
     }
 
+    private ProcConfig config(Object input, Object stdout, ProcControl control) {
+        ProcConfig config = new ProcConfig();
+        config.command = command;
+        config.args = args;
+        config.commandPrefix = commandPrefix();
+        config.env = env;
+        config.clearEnvironment = clearEnvironment;
+        config.directory = directory;
+        config.launcher = launcher;
+        config.stdin = input;
+        config.stdout = stdout;
+        config.stderr = errorConsumer != null ? errorConsumer : stderr;
+        config.compressCapture = compressCapture;
+        config.charset = charset;
+        config.outputPatterns = outputPatterns;
+        config.errorPatterns = errorPatterns;
+        config.outputBuffer = outputBuffer;
+        config.outputTees = outputTees;
+        config.errorTees = errorTees;
+        config.timeout = timoutMillis;
+        config.cpuTimeout = cpuTimeoutMillis;
+        config.idleTimeout = idleTimeoutMillis;
+        config.control = control;
+        config.measureResourceUsage = measureResourceUsage;
+        config.progress = progressListener != null ? new ProgressTracker(progressListener, progressInterval) : null;
+        List<ProcListener> listeners = listeners();
+        config.notifier = listeners.isEmpty() ? null : new ProcNotifier(listeners, Proc.formatCommandLine(command, args), timoutMillis);
+        return config;
+    }
+
+    private List<ProcListener> listeners() {
+        if (globalListeners.isEmpty()) {
+            return listeners;
+        }
+        List<ProcListener> all = new ArrayList<ProcListener>(globalListeners);
+        all.addAll(listeners);
+        return all;
+    }
+
+    private List<String> commandPrefix() {
+        return resourceLimits != null ? resourceLimits.wrapperCommand() : Collections.<String>emptyList();
+    }
+
+    private void reset() {
+        stdout = defaultStdout = newCaptureStream();
+        stdin = null;
+    }
+
+    /** Spawn the process and iterate over the lines of its standard output while it is running.
+     * The lines are decoded using the charset of the builder, line terminators are dropped.
+     * Closing the iterator early terminates the process.
+     * @return an iterator over the lines, which must be closed
+     * @see RecordIterator
+     */
+    public RecordIterator<String> lines() {
+        return records(Records.lines(charset));
+    }
+
+    /** Spawn the process and iterate over the records of its standard output while it is running.
+     * Closing the iterator early terminates the process.
+     * @param format describes how to split the output into records, see {@link Records}
+     * @param <T> type of the records
+     * @return an iterator over the records, which must be closed
+     * @see RecordIterator
+     */
+    public <T> RecordIterator<T> records(RecordFormat<T> format) {
+        if (stdout != defaultStdout || outputConsumer != null) {
+            throw new IllegalArgumentException("Iterating over the output can't be combined with " +
+                "`withOutputStream(OutputStream)` or `withOutputConsumer(OutputConsumer)`.");
+        }
+        return new RecordIterator<T>(this, format, RecordIterator.DEFAULT_CAPACITY);
+    }
+
+    /** Provide the standard output as publisher, without blocking the calling thread. Every
+     * subscription spawns the process on a shared pool of daemon threads, the output only gets read as
+     * requested by the subscriber. The subscriber gets completed once the process has exited successfully,
+     * or receives the exception {@link #run()} would throw. Cancelling the subscription terminates the process.
+     * @return a publisher of the output
+     */
+    public Flow.Publisher<ByteBuffer> outputPublisher() {
+        return outputPublisher(OutputPublisher.defaultExecutor);
+    }
+
+    /** Provide the standard output as publisher, see {@link #outputPublisher()}.
+     * @param executor the executor that runs a task per subscription, which spawns the process and
+     *                 waits for it
+     * @return a publisher of the output
+     */
+    public Flow.Publisher<ByteBuffer> outputPublisher(Executor executor) {
+        if (stdout != defaultStdout || outputConsumer != null) {
+            throw new IllegalArgumentException("Publishing the output can't be combined with " +
+                "`withOutputStream(OutputStream)` or `withOutputConsumer(OutputConsumer)`.");
+        }
+        return new OutputPublisher(this, executor);
+    }
+
     /** Static helper to run a process
      * @param cmd the command
      * @param args the arguments
@@ -268,6 +652,174 @@ public class ProcBuilder {
         return builder.run().getOutputString();
     }
 
+    /** Select the mechanism the JDK uses to launch processes. This is a global setting, which
+     * the JDK reads once, when the first process of the JVM gets started. It therefore has to be
+     * selected during startup, before any process is launched, by this library or otherwise.
+     * Use {@link ProcResult#getSpawnTime()} to compare the launch latency of the mechanisms.
+     * @param mechanism the launch mechanism
+     * @throws IllegalStateException if a different mechanism is requested after a process has been started
+     * @throws IllegalArgumentException if the mechanism is not supported on this platform
+     */
+    public static void useLaunchMechanism(LaunchMechanism mechanism) {
+        LaunchMechanism.select(mechanism);
+    }
+
+    /** Notify a listener about the lifecycle of every process started by any builder, e.g. to trace them.
+     * @param listener the listener, see {@link ProcListener}
+     */
+    public static void addGlobalListener(ProcListener listener) {
+        globalListeners.add(listener);
+    }
+
+    /** @param listener a listener that has been added with {@link #addGlobalListener(ProcListener)} */
+    public static void removeGlobalListener(ProcListener listener) {
+        globalListeners.remove(listener);
+    }
+
+    /** Notify a listener about the lifecycle of the process, see {@link ProcListener}.
+     * @param listener the listener
+     * @return this, for chaining
+     */
+    public ProcBuilder withListener(ProcListener listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    /** Spawn the process through a launcher process rather than from this JVM. This keeps the
+     * cost of spawning independent of the heap size of this JVM, at the expense of relaying the
+     * streams through the launcher.
+     * @param launcher the launcher to use, may be shared with other builders
+     * @return this, for chaining
+     */
+    public ProcBuilder withLauncher(ProcessLauncher launcher) {
+        this.launcher = launcher;
+        return this;
+    }
+
+    /** Measure the CPU time, peak memory and storage I/O of the process. The usage gets sampled
+     * from the proc file system while the process is running, which is only supported on Linux.
+     * It is reported by {@link ProcResult#getResourceUsage()},
+     * {@link ExternalProcessFailureException#getResourceUsage()} and accumulated in
+     * {@link ResourceUsage#total()}.
+     * @return this, for chaining
+     */
+    public ProcBuilder measureResourceUsage() {
+        this.measureResourceUsage = true;
+        return this;
+    }
+
+    /** Constrain the resources the process may use. This is only supported on Linux.
+     * Exceeding the CPU time or file size limit results in a {@link ResourceLimitExceededException}.
+     * @param limits the limits to apply
+     * @return this, for chaining
+     */
+    public ProcBuilder withResourceLimits(ResourceLimits limits) {
+        this.resourceLimits = limits;
+        return this;
+    }
+
+    /** Run the process again if it fails in a way the policy considers transient. This requires the
+     * output to be captured and the input to be given as string, byte[] or ByteBuffer, so it can be
+     * fed in again.
+     * @param policy the conditions for a retry and the backoff between attempts
+     * @return this, for chaining
+     */
+    public ProcBuilder withRetryPolicy(RetryPolicy policy) {
+        this.retryPolicy = policy;
+        return this;
+    }
+
+    /** Start a second copy of the process if the first one takes unusually long, and use the result
+     * of whichever succeeds first. The other one gets terminated. This has the same requirements as
+     * {@link #withRetryPolicy(RetryPolicy)}.
+     * @param policy tracks the execution times and determines when to hedge, share it between
+     *               invocations of the same tool
+     * @return this, for chaining
+     */
+    public ProcBuilder withHedging(HedgingPolicy policy) {
+        this.hedgingPolicy = policy;
+        return this;
+    }
+
+    /** Launch the process through a scheduler that caps the number of processes running at the same
+     * time, with normal priority on behalf of the default tenant.
+     * @param scheduler the scheduler, usually shared between all builders
+     * @return this, for chaining
+     */
+    public ProcBuilder withLaunchScheduler(LaunchScheduler scheduler) {
+        return withLaunchScheduler(scheduler, LaunchScheduler.Priority.NORMAL, LaunchScheduler.DEFAULT_TENANT);
+    }
+
+    /** Launch the process through a scheduler that caps the number of processes running at the same
+     * time. If the cap is reached, the launch waits for a slot, see {@link LaunchScheduler} for the order
+     * in which waiting launches get admitted. A launch waits no longer than the timeout of the builder,
+     * and gives up waiting when it gets terminated, e.g. because a {@link ProcScope} gets closed.
+     * @param scheduler the scheduler, usually shared between all builders
+     * @param priority the priority class of the invocation
+     * @param tenant the caller on whose behalf the process runs, tenants get an equal share of the slots
+     * @return this, for chaining
+     */
+    public ProcBuilder withLaunchScheduler(LaunchScheduler scheduler, LaunchScheduler.Priority priority, String tenant) {
+        this.scheduler = scheduler;
+        this.priority = priority;
+        this.tenant = tenant;
+        return this;
+    }
+
+    /** Answer repeated invocations from a cache instead of spawning a process. This is only
+     * appropriate for deterministic commands. See {@link ProcResultCache} for which invocations
+     * are cacheable and what the key comprises.
+     * @param cache the cache to use, may be shared with other builders
+     * @param inputFiles files the process reads, their content becomes part of the key
+     * @return this, for chaining
+     */
+    public ProcBuilder withResultCache(ProcResultCache cache, File... inputFiles) {
+        this.resultCache = cache;
+        this.cacheInputFiles = asList(inputFiles);
+        return this;
+    }
+
+    /** Let concurrent invocations with identical configuration share a single process.
+     * If a run is started while an identical one is in flight, it waits for the running process
+     * and returns the same result, or throws the same exception. Runs are considered identical
+     * if command, arguments, environment, working directory, input, charset, timeout and expected
+     * exit statuses match. This only applies to runs whose output is captured and whose input is
+     * given as string, byte[] or ByteBuffer, other runs always spawn their own process.
+     * @return this, for chaining
+     */
+    public ProcBuilder coalesceConcurrentRuns() {
+        this.coalesce = true;
+        return this;
+    }
+
+    /** Buffer the standard output between the pipe of the process and its consumer. This smooths
+     * bursts when the consumer is jittery, and the metrics of the buffer show whether the consumer or
+     * the process is the bottleneck.
+     * @param buffer the buffer to use, see {@link OutputBuffer}
+     * @return this, for chaining
+     */
+    public ProcBuilder withOutputBuffer(OutputBuffer buffer) {
+        this.outputBuffer = buffer;
+        return this;
+    }
+
+    /** Keep captured output compressed in memory. The output gets deflated while it is being
+     * captured and inflated again when it is accessed through the {@link ProcResult}. This trades
+     * CPU time for heap, which pays off for large, textual output that is retained for a while.
+     * @return this, for chaining
+     */
+    public ProcBuilder compressCapturedOutput() {
+        this.compressCapture = true;
+        if (stdout == defaultStdout) {
+            stdout = defaultStdout = newCaptureStream();
+        }
+        return this;
+    }
+
+    private ByteArrayOutputStream newCaptureStream() {
+        return compressCapture ? new CompressedByteArrayOutputStream() : new ByteArrayOutputStream();
+    }
+
     /** Clears the environment before setting new variables. */
      public ProcBuilder clearEnvironment() {
         this.clearEnvironment = true;
@@ -314,6 +866,107 @@ public class ProcBuilder {
         return this;
     }
 
+    /**
+     * Write a copy of the standard output to a stream, in addition to capturing or consuming it. Each
+     * chunk gets written as soon as it has been read from the process, on the thread reading it.
+     * @param sink the stream to write to, it doesn't get closed
+     * @return this, for chaining
+     */
+    public ProcBuilder teeOutputTo(OutputStream sink) {
+        outputTees.add(new Tee(sink, null));
+        return this;
+    }
+
+    /**
+     * Write a copy of the standard output to a channel, e.g. a log file, in addition to capturing
+     * or consuming it. The channel gets handed read-only views of the chunks read from the process.
+     * @param sink the channel to write to, it doesn't get closed
+     * @return this, for chaining
+     */
+    public ProcBuilder teeOutputTo(WritableByteChannel sink) {
+        outputTees.add(new Tee(sink, null));
+        return this;
+    }
+
+    /**
+     * Let a consumer process a copy of the standard output, in addition to capturing or consuming
+     * it, e.g. to parse it while it is being logged. The consumer runs on its own thread and reads
+     * from a buffer of 64 KiB, so that it doesn't hold back the other sinks unless it falls behind
+     * by more than that.
+     * @param sink the consumer
+     * @return this, for chaining
+     */
+    public ProcBuilder teeOutputTo(StreamConsumer sink) {
+        return teeOutputTo(sink, new OutputBuffer(64 * 1024));
+    }
+
+    /**
+     * Write a copy of the standard output to a stream through a buffer. A separate thread feeds the
+     * stream from the buffer, so a slow stream only holds back reading once the buffer is full.
+     * @param sink the stream to write to, it doesn't get closed
+     * @param buffer the buffer between reading the output and the stream, see {@link OutputBuffer}
+     * @return this, for chaining
+     */
+    public ProcBuilder teeOutputTo(OutputStream sink, OutputBuffer buffer) {
+        outputTees.add(new Tee(sink, buffer));
+        return this;
+    }
+
+    /**
+     * Write a copy of the standard output to a channel through a buffer, see
+     * {@link #teeOutputTo(OutputStream, OutputBuffer)}.
+     * @param sink the channel to write to, it doesn't get closed
+     * @param buffer the buffer between reading the output and the channel
+     * @return this, for chaining
+     */
+    public ProcBuilder teeOutputTo(WritableByteChannel sink, OutputBuffer buffer) {
+        outputTees.add(new Tee(sink, buffer));
+        return this;
+    }
+
+    /**
+     * Let a consumer process a copy of the standard output, reading from the given buffer.
+     * @param sink the consumer
+     * @param buffer the buffer between reading the output and the consumer
+     * @return this, for chaining
+     */
+    public ProcBuilder teeOutputTo(StreamConsumer sink, OutputBuffer buffer) {
+        outputTees.add(new Tee(sink, buffer));
+        return this;
+    }
+
+    /**
+     * Record standard output and standard error together, in the order in which they have been read
+     * and with timestamps, e.g. to see which output led up to an error. This works in addition to
+     * capturing or consuming the streams.
+     * @param output the recording, appended to by every run of the builder and unbounded unless it has been
+     *               given a capacity
+     * @return this, for chaining
+     */
+    public ProcBuilder withInterleavedCapture(InterleavedOutput output) {
+        outputTees.add(new Tee(output.sink(InterleavedOutput.Source.STDOUT), null));
+        errorTees.add(new Tee(output.sink(InterleavedOutput.Source.STDERR), null));
+        return this;
+    }
+
+    /**
+     * Report the progress of the process while it is running: the bytes written to its input, the
+     * bytes read from its output and error stream and how long it has been silent. The pipes only
+     * count bytes, the listener gets called at a fixed rate and once more when the output has been
+     * consumed.
+     * @param listener the listener to report to
+     * @param maxPerSecond how often to report per second, at most 1000
+     * @return this, for chaining
+     */
+    public ProcBuilder withProgressListener(ProgressListener listener, int maxPerSecond) {
+        if (maxPerSecond < 1 || maxPerSecond > 1000) {
+            throw new IllegalArgumentException("The rate needs to be between 1 and 1000 reports per second.");
+        }
+        this.progressListener = listener;
+        this.progressInterval = 1000 / maxPerSecond;
+        return this;
+    }
+
     /**
      * Process the error output with given consumer object
      * @param errorConsumer an object that defines how to process the error output stream
@@ -328,6 +981,54 @@ public class ProcBuilder {
         return this;
     }
 
+    /**
+     * Publish the standard output to a subscriber. The output only gets read as requested by the
+     * subscriber, so its demand holds back the process. The subscriber is completed when the output
+     * ends, which may be before the exit status of the process has been checked.
+     * @param subscriber the subscriber to receive the output
+     * @return this, for chaining
+     */
+    public ProcBuilder withOutputSubscriber(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        return withOutputConsumer(new SubscriberConsumer(subscriber, true));
+    }
+
+    /**
+     * Publish the error output to a subscriber, see {@link #withOutputSubscriber(Flow.Subscriber)}.
+     * @param subscriber the subscriber to receive the error output
+     * @return this, for chaining
+     */
+    public ProcBuilder withErrorSubscriber(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        return withErrorConsumer(new SubscriberConsumer(subscriber, true));
+    }
+
+    /**
+     * Watch the standard output for lines matching a pattern while the process is running.
+     * The handler gets called for every matching line and can decide to terminate the process,
+     * e.g. when a marker line has been written. Multiple patterns can be registered, they are
+     * checked in order of registration. This works independently of how the output gets consumed.
+     *
+     * @param pattern the pattern to find in each line
+     * @param handler gets called with each matching line
+     * @return this, for chaining
+     */
+    public ProcBuilder withOutputPattern(Pattern pattern, MatchHandler handler) {
+        outputPatterns.add(new LinePattern(pattern, handler));
+        return this;
+    }
+
+    /**
+     * Watch the error output for lines matching a pattern while the process is running.
+     *
+     * @param pattern the pattern to find in each line
+     * @param handler gets called with each matching line
+     * @return this, for chaining
+     * @see #withOutputPattern(Pattern, MatchHandler)
+     */
+    public ProcBuilder withErrorPattern(Pattern pattern, MatchHandler handler) {
+        errorPatterns.add(new LinePattern(pattern, handler));
+        return this;
+    }
+
     /** @return  a string representation of the process invocation.
      *
      *           This approximates the representation of this invocation
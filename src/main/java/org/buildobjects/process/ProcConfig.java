@@ -0,0 +1,43 @@
+package org.buildobjects.process;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything a {@link Proc} needs to spawn and supervise a single run of a process, as put together
+ * by the {@link ProcBuilder}. Optional settings are null.
+ */
+class ProcConfig {
+    String command;
+    List<String> args;
+    List<String> commandPrefix;
+    Map<String, String> env;
+    boolean clearEnvironment;
+    File directory;
+    ProcessLauncher launcher;
+
+    /** The input, see {@link IoHandler} for the supported types */
+    Object stdin;
+    /** An {@link java.io.OutputStream} or a {@link StreamConsumer} */
+    Object stdout;
+    /** An {@link java.io.OutputStream} or a {@link StreamConsumer}, null to capture the error output */
+    Object stderr;
+    boolean compressCapture;
+    Charset charset;
+    List<LinePattern> outputPatterns;
+    List<LinePattern> errorPatterns;
+    OutputBuffer outputBuffer;
+    List<Tee> outputTees;
+    List<Tee> errorTees;
+
+    Long timeout;
+    Long cpuTimeout;
+    Long idleTimeout;
+    ProcControl control;
+
+    boolean measureResourceUsage;
+    ProgressTracker progress;
+    ProcNotifier notifier;
+}
@@ -0,0 +1,34 @@
+package org.buildobjects.process;
+
+import static org.buildobjects.process.ExecutionEvent.TERMINATION_REQUESTED;
+
+/**
+ * Allows terminating a process from another thread while the thread that spawned it is
+ * blocked waiting for it. Termination can be requested before the process has been started,
+ * in which case it gets terminated as soon as it has been spawned.
+ */
+class ProcControl {
+    private EventSink proc;
+    private boolean terminationRequested;
+
+    synchronized void attach(EventSink proc) {
+        this.proc = proc;
+        if (terminationRequested) {
+            proc.dispatch(TERMINATION_REQUESTED);
+        }
+    }
+
+    synchronized void terminate() {
+        if (terminationRequested) {
+            return;
+        }
+        terminationRequested = true;
+        if (proc != null) {
+            proc.dispatch(TERMINATION_REQUESTED);
+        }
+    }
+
+    synchronized boolean isTerminationRequested() {
+        return terminationRequested;
+    }
+}
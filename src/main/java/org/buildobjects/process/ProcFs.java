@@ -0,0 +1,212 @@
+package org.buildobjects.process;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Reads accounting information of processes from the proc file system on Linux. All methods
+ * return -1 or null if the information is not available, e.g. because the process is gone.
+ */
+class ProcFs {
+    /** Duration of a clock tick, the unit of the CPU times in {@code /proc/<pid>/stat}. USER_HZ is 100 on all
+     *  mainstream Linux platforms. */
+    static final long CLOCK_TICK_MILLIS = 10;
+
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+    private ProcFs() {
+    }
+
+    static boolean isAvailable() {
+        return new File("/proc/self/stat").isFile();
+    }
+
+    /** @return the pid of the process, or -1 if it can't be determined */
+    static long pid(Process process) {
+        if (process instanceof RemoteProcess) {
+            return ((RemoteProcess) process).pid();
+        }
+        try {
+            // JDK 9 and later
+            Method pid = Process.class.getMethod("pid");
+            return (Long) pid.invoke(process);
+        } catch (NoSuchMethodException e) {
+            try {
+                // JDK 7 and 8 on Unix-like platforms
+                Field pid = process.getClass().getDeclaredField("pid");
+                pid.setAccessible(true);
+                return pid.getInt(process);
+            } catch (Exception | LinkageError inner) {
+                return -1;
+            }
+        } catch (Exception | LinkageError e) {
+            return -1;
+        }
+    }
+
+    /** @return user and system CPU time in milliseconds, including the time of children that have been
+     *          waited for, or null */
+    static long[] cpuTimes(long pid) {
+        String stat = read(pid, "stat");
+        if (stat == null) {
+            return null;
+        }
+        // The command name may contain spaces and parentheses, the fields start after the last ')'.
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+        try {
+            long user = Long.parseLong(fields[11]) + Long.parseLong(fields[13]);
+            long system = Long.parseLong(fields[12]) + Long.parseLong(fields[14]);
+            return new long[]{user * CLOCK_TICK_MILLIS, system * CLOCK_TICK_MILLIS};
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** @return the parents and CPU times of all living processes, read in a single scan of {@code /proc} */
+    static Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        String[] entries = new File("/proc").list();
+        for (String entry : entries != null ? entries : new String[0]) {
+            if (!Character.isDigit(entry.charAt(0))) {
+                continue;
+            }
+            long pid = Long.parseLong(entry);
+            String stat = read(pid, "stat");
+            if (stat == null) {
+                continue;
+            }
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            try {
+                long cpuTime = Long.parseLong(fields[11]) + Long.parseLong(fields[12])
+                    + Long.parseLong(fields[13]) + Long.parseLong(fields[14]);
+                snapshot.add(pid, Long.parseLong(fields[1]), cpuTime * CLOCK_TICK_MILLIS);
+            } catch (RuntimeException e) {
+                // The format is unexpected, skip the process
+            }
+        }
+        return snapshot;
+    }
+
+    /** @return the pids of the living descendants of the process */
+    static List<Long> descendants(long pid) {
+        return snapshot().descendants(pid);
+    }
+
+    /** The process tree at one point in time */
+    static class Snapshot {
+        private final Map<Long, List<Long>> children = new HashMap<Long, List<Long>>();
+        private final Map<Long, Long> cpuTimes = new HashMap<Long, Long>();
+
+        private void add(long pid, long parent, long cpuTime) {
+            if (!children.containsKey(parent)) {
+                children.put(parent, new ArrayList<Long>());
+            }
+            children.get(parent).add(pid);
+            cpuTimes.put(pid, cpuTime);
+        }
+
+        /** @return the pids of the living descendants of the process */
+        List<Long> descendants(long pid) {
+            List<Long> descendants = new ArrayList<Long>();
+            Deque<Long> pending = new ArrayDeque<Long>(Collections.singleton(pid));
+            while (!pending.isEmpty()) {
+                List<Long> direct = children.get(pending.pop());
+                if (direct != null) {
+                    descendants.addAll(direct);
+                    pending.addAll(direct);
+                }
+            }
+            return descendants;
+        }
+
+        /** @return the user and system CPU time of the process and its living descendants in milliseconds,
+         *          including the time of children that have been waited for, or -1 if the process is gone */
+        long treeCpuTime(long pid) {
+            Long root = cpuTimes.get(pid);
+            if (root == null) {
+                return -1;
+            }
+            long total = root;
+            for (long descendant : descendants(pid)) {
+                total += cpuTimes.get(descendant);
+            }
+            return total;
+        }
+    }
+
+    /** Kill the process and its descendants with SIGKILL */
+    static void killTree(long pid) {
+        List<String> command = new ArrayList<String>(Arrays.asList("kill", "-KILL", String.valueOf(pid)));
+        for (long descendant : descendants(pid)) {
+            command.add(String.valueOf(descendant));
+        }
+        try {
+            new ProcessBuilder(command).redirectErrorStream(true).start().waitFor();
+        } catch (IOException e) {
+            // Nothing more we can do, the caller destroys the process itself.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** @return the peak resident set size in bytes, or -1 */
+    static long peakResidentSetSize(long pid) {
+        String status = read(pid, "status");
+        if (status == null) {
+            return -1;
+        }
+        for (String line : status.split("\n")) {
+            if (line.startsWith("VmHWM:")) {
+                return Long.parseLong(line.substring(6).replace("kB", "").trim()) * 1024;
+            }
+        }
+        return -1;
+    }
+
+    /** @return the bytes read from and written to storage, or null */
+    static long[] ioBytes(long pid) {
+        String io = read(pid, "io");
+        if (io == null) {
+            return null;
+        }
+        long[] bytes = {-1, -1};
+        for (String line : io.split("\n")) {
+            if (line.startsWith("read_bytes:")) {
+                bytes[0] = Long.parseLong(line.substring(11).trim());
+            } else if (line.startsWith("write_bytes:")) {
+                bytes[1] = Long.parseLong(line.substring(12).trim());
+            }
+        }
+        return bytes[0] < 0 || bytes[1] < 0 ? null : bytes;
+    }
+
+    /** @return the number of runnable processes averaged over the last minute, or -1 */
+    static double loadAverage() {
+        String loadavg = read(new File("/proc/loadavg"));
+        if (loadavg == null) {
+            return -1;
+        }
+        try {
+            return Double.parseDouble(loadavg.split(" ")[0]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String read(long pid, String file) {
+        return read(new File("/proc/" + pid + "/" + file));
+    }
+
+    private static String read(File file) {
+        try {
+            return new String(Files.readAllBytes(file.toPath()), LATIN_1);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.buildobjects.process;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single run of a process, as seen by {@link ProcListener}s. The same object gets passed to all
+ * notifications about the run, and listeners can attach their own state to it, e.g. a span.
+ */
+public class ProcInvocation {
+    private final String commandLine;
+    private final Long timeout;
+    final AtomicLong outputBytes = new AtomicLong();
+    final AtomicLong errorBytes = new AtomicLong();
+    private final Map<ProcListener, Object> attachments = new IdentityHashMap<ProcListener, Object>();
+
+    ProcInvocation(String commandLine, Long timeout) {
+        this.commandLine = commandLine;
+        this.timeout = timeout;
+    }
+
+    /** @return the command line, as in {@link ProcResult#getCommandLine()} */
+    public String getCommandLine() {
+        return commandLine;
+    }
+
+    /** @return the timeout in milliseconds, or null if there is none */
+    public Long getTimeout() {
+        return timeout;
+    }
+
+    /** @return the bytes read from the standard output so far */
+    public long getOutputBytes() {
+        return outputBytes.get();
+    }
+
+    /** @return the bytes read from the standard error so far */
+    public long getErrorBytes() {
+        return errorBytes.get();
+    }
+
+    /** @param listener the listener the state belongs to
+     * @param attachment the state to keep for the run */
+    public synchronized void setAttachment(ProcListener listener, Object attachment) {
+        attachments.put(listener, attachment);
+    }
+
+    /** @param listener the listener the state belongs to
+     * @return the state the listener has attached, or null */
+    public synchronized Object getAttachment(ProcListener listener) {
+        return attachments.get(listener);
+    }
+}
@@ -0,0 +1,51 @@
+package org.buildobjects.process;
+
+/**
+ * Gets notified at the key points of the lifecycle of a process, e.g. to trace each invocation as a
+ * span with the phases as events. Register listeners with {@link ProcBuilder#withListener(ProcListener)}
+ * or globally with {@link ProcBuilder#addGlobalListener(ProcListener)}.
+ *
+ * All methods do nothing by default, override the ones of interest. They get called on the threads
+ * running the process and pumping its output, so they should return quickly. Exceptions thrown by
+ * listeners are ignored. Without listeners, nothing gets counted or dispatched.
+ */
+public abstract class ProcListener {
+
+    /** Called before the process gets spawned */
+    public void beforeStart(ProcInvocation invocation) {
+    }
+
+    /** Called once the process has been spawned
+     * @param spawnTime the time it took to launch the process, in nanoseconds */
+    public void started(ProcInvocation invocation, long spawnTime) {
+    }
+
+    /** Called when the first byte of output arrives, on either stream */
+    public void firstOutput(ProcInvocation invocation) {
+    }
+
+    /** Called when the process has exited, its output may still be being consumed */
+    public void exited(ProcInvocation invocation, int exitValue) {
+    }
+
+    /** Called when the output of an exited process has been consumed completely */
+    public void drained(ProcInvocation invocation) {
+    }
+
+    /** Called when the process exceeded one of its timeouts, after it has been killed */
+    public void timedOut(ProcInvocation invocation, TimeoutException exception) {
+    }
+
+    /** Called when the process gets killed, because of a timeout, a failure consuming its output
+     * or on request */
+    public void killed(ProcInvocation invocation) {
+    }
+
+    /** Called last, once the run is over however it ended, e.g. to end the span. Every invocation that
+     * {@link #beforeStart(ProcInvocation)} has been called for gets finished.
+     * @param failure the exception the run fails with, e.g. a {@link StartupException}, a
+     *                {@link TimeoutException} or an {@link ExternalProcessFailureException}, or null if
+     *                it succeeded, which includes getting terminated on request */
+    public void finished(ProcInvocation invocation, Throwable failure) {
+    }
+}
@@ -0,0 +1,124 @@
+package org.buildobjects.process;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatches the lifecycle of one run of a process to the {@link ProcListener}s. Only created if there
+ * are listeners.
+ */
+class ProcNotifier {
+    private final List<ProcListener> listeners;
+    private final ProcInvocation invocation;
+    private final AtomicBoolean output = new AtomicBoolean();
+    private final AtomicBoolean killed = new AtomicBoolean();
+
+    ProcNotifier(List<ProcListener> listeners, String commandLine, Long timeout) {
+        this.listeners = listeners;
+        this.invocation = new ProcInvocation(commandLine, timeout);
+    }
+
+    void beforeStart() {
+        dispatch(new Notification() {
+            void send(ProcListener listener) {
+                listener.beforeStart(invocation);
+            }
+        });
+    }
+
+    void started(final long spawnTime) {
+        dispatch(new Notification() {
+            void send(ProcListener listener) {
+                listener.started(invocation, spawnTime);
+            }
+        });
+    }
+
+    void exited(final int exitValue) {
+        dispatch(new Notification() {
+            void send(ProcListener listener) {
+                listener.exited(invocation, exitValue);
+            }
+        });
+    }
+
+    void drained() {
+        dispatch(new Notification() {
+            void send(ProcListener listener) {
+                listener.drained(invocation);
+            }
+        });
+    }
+
+    void timedOut(final TimeoutException exception) {
+        dispatch(new Notification() {
+            void send(ProcListener listener) {
+                listener.timedOut(invocation, exception);
+            }
+        });
+    }
+
+    void killed() {
+        if (!killed.compareAndSet(false, true)) {
+            return;
+        }
+        dispatch(new Notification() {
+            void send(ProcListener listener) {
+                listener.killed(invocation);
+            }
+        });
+    }
+
+    void finished(final Throwable failure) {
+        dispatch(new Notification() {
+            void send(ProcListener listener) {
+                listener.finished(invocation, failure);
+            }
+        });
+    }
+
+    /** @return a tee counting the bytes read from the standard output */
+    Tee outputTap() {
+        return counter(invocation.outputBytes).tee();
+    }
+
+    /** @return a tee counting the bytes read from the standard error */
+    Tee errorTap() {
+        return counter(invocation.errorBytes).tee();
+    }
+
+    private CountingTap counter(AtomicLong bytes) {
+        return new CountingTap(bytes) {
+            @Override
+            void counted() {
+                if (!output.get() && output.compareAndSet(false, true)) {
+                    firstOutput();
+                }
+            }
+        };
+    }
+
+    private void firstOutput() {
+        dispatch(new Notification() {
+            void send(ProcListener listener) {
+                listener.firstOutput(invocation);
+            }
+        });
+    }
+
+    private void dispatch(Notification notification) {
+        for (ProcListener listener : listeners) {
+            try {
+                notification.send(listener);
+            } catch (RuntimeException e) {
+                // Listeners must not interfere with the process
+            }
+        }
+    }
+
+    /** One of the callbacks of {@link ProcListener} */
+    private abstract static class Notification {
+        abstract void send(ProcListener listener);
+    }
+}
@@ -1,7 +1,8 @@
 package org.buildobjects.process;
 
 import java.io.ByteArrayOutputStream;
-import java.util.Arrays;
+import java.io.IOException;
+import java.nio.charset.Charset;
 
 /**
  * Represents the result of a successful process execution.
@@ -12,14 +13,23 @@ public class ProcResult {
     private final ByteArrayOutputStream output;
     private final int exitValue;
     private final long executionTime;
-    private final byte[] err;
+    private final long spawnTime;
+    private final ResourceUsage resourceUsage;
+    private final ByteArrayOutputStream err;
+    private final Charset charset;
 
-    ProcResult(String procString, ByteArrayOutputStream output, int exitValue, long executionTime, byte[] err) {
+    private String outputString;
+    private String errorString;
+
+    ProcResult(String procString, ByteArrayOutputStream output, int exitValue, long executionTime, long spawnTime, ResourceUsage resourceUsage, ByteArrayOutputStream err, Charset charset) {
         this.procString = procString;
         this.output = output;
         this.exitValue = exitValue;
         this.executionTime = executionTime;
-        this.err = err != null ? Arrays.copyOf(err, err.length) : null;
+        this.spawnTime = spawnTime;
+        this.resourceUsage = resourceUsage;
+        this.err = err;
+        this.charset = charset;
     }
 
     /** @return  a string representation of the process invocation.
@@ -54,10 +64,18 @@ public class ProcResult {
         return output;
     }
 
-    /** @return the standard output as string
+    /** @return the standard output as string, decoded with the charset configured on the builder.
+     *          The string is decoded only once, unless the output has been captured compressed.
      *  @throws IllegalStateException if an OutputStream has been provided to captured the output */
-    public String getOutputString() throws IllegalStateException {
-        return getOutputStream().toString();
+    public synchronized String getOutputString() throws IllegalStateException {
+        if (outputString != null) {
+            return outputString;
+        }
+        String string = Helper.decode(getOutputBytes(), charset);
+        if (!(output instanceof CompressedByteArrayOutputStream)) {
+            outputString = string;
+        }
+        return string;
     }
 
     /** @return the standard output as byte[]
@@ -66,10 +84,18 @@ public class ProcResult {
         return getOutputStream().toByteArray();
     }
 
-    /** @return the standard error as string
+    /** @return the standard error as string, decoded with the charset configured on the builder.
+     *          The string is decoded only once, unless the output has been captured compressed.
      *  @throws IllegalStateException if an OutputStream has been provided to capture the error output */
-    public String getErrorString() throws IllegalStateException {
-        return new String(getErrorBytes());
+    public synchronized String getErrorString() throws IllegalStateException {
+        if (errorString != null) {
+            return errorString;
+        }
+        String string = Helper.decode(getErrorBytes(), charset);
+        if (!(err instanceof CompressedByteArrayOutputStream)) {
+            errorString = string;
+        }
+        return string;
     }
 
     /** @return the standard error as byte[]
@@ -78,7 +104,40 @@ public class ProcResult {
         if(err == null) {
             throw new IllegalStateException("Error output has been consumed by client provided OutputStream");
         }
-        return err; // Should we make defensive copy?
+        return err.toByteArray();
+    }
+
+    ByteArrayOutputStream getOutput() {
+        return output;
+    }
+
+    ByteArrayOutputStream getError() {
+        return err;
+    }
+
+    Charset getCharset() {
+        return charset;
+    }
+
+    /** @return a result with the same content, whose captured streams are copies of the ones of this result */
+    ProcResult copy() {
+        return new ProcResult(procString, copy(output), exitValue, executionTime, spawnTime, resourceUsage, copy(err), charset);
+    }
+
+    private static ByteArrayOutputStream copy(ByteArrayOutputStream stream) {
+        if (stream == null) {
+            return null;
+        }
+        if (stream instanceof CompressedByteArrayOutputStream) {
+            return ((CompressedByteArrayOutputStream) stream).copy();
+        }
+        ByteArrayOutputStream copy = new ByteArrayOutputStream(stream.size());
+        try {
+            stream.writeTo(copy);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return copy;
     }
 
     /** @return the exit value of the process */
@@ -90,4 +149,16 @@ public class ProcResult {
     public long getExecutionTime() {
         return executionTime;
     }
+
+    /** @return the time it took to launch the process in nanoseconds, which depends on the
+     *          {@link LaunchMechanism} and, for some mechanisms, on the size of the heap. */
+    public long getSpawnTime() {
+        return spawnTime;
+    }
+
+    /** @return the resources used by the process, or null if they have not been measured,
+     *          see {@link ProcBuilder#measureResourceUsage()} */
+    public ResourceUsage getResourceUsage() {
+        return resourceUsage;
+    }
 }
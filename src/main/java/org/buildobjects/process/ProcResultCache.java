@@ -0,0 +1,220 @@
+package org.buildobjects.process;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the results of deterministic commands, so that repeated invocations with identical
+ * configuration and input don't spawn a process. A cache is attached to a builder with
+ * {@link ProcBuilder#withResultCache(ProcResultCache, File...)} and may be shared between builders.
+ *
+ * Results are keyed by a hash of the command, the arguments, the explicitly set environment
+ * variables, the working directory, the charset, the expected exit statuses and the input.
+ * Inherited environment variables that influence the result can be added to the key with
+ * {@link #withInheritedVariables(String...)}. Only successful invocations are cached, and only if
+ * both output streams are captured and the input is given as string, byte[] or ByteBuffer.
+ * Other invocations bypass the cache.
+ *
+ * The in-memory tier evicts the least recently used results once either the number of entries
+ * or the number of captured bytes exceeds its bound. Optionally every result is also written
+ * through to disk, where it outlives its eviction from memory and the JVM, and is not evicted at
+ * all. The disk tier is best effort: failing to read or write it doesn't fail the invocation.
+ *
+ * The cache keeps its own copy of each result and hands out a copy on every hit, so results
+ * returned to callers share no captured output with the cache or with each other.
+ */
+public class ProcResultCache {
+    private static final int DISK_FORMAT_VERSION = 2;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<InvocationKey, ProcResult> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private File directory;
+    private final List<String> inheritedVariables = new ArrayList<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates an in-memory cache.
+     * @param maxEntries the maximum number of results to keep in memory
+     * @param maxBytes the maximum number of captured bytes (stdout and stderr) to keep in memory
+     */
+    public ProcResultCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Keep results on disk as well. Results found on disk are loaded back into memory.
+     * @param directory the directory to store the results in, it gets created if necessary
+     * @return this, for chaining
+     */
+    public ProcResultCache withDiskDirectory(File directory) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Could not create directory '" + directory.getPath() + "'.");
+        }
+        this.directory = directory;
+        return this;
+    }
+
+    /**
+     * Add the values of inherited environment variables to the key, e.g. `PATH`.
+     * @param names the names of the variables
+     * @return this, for chaining
+     */
+    public ProcResultCache withInheritedVariables(String... names) {
+        inheritedVariables.addAll(Arrays.asList(names));
+        return this;
+    }
+
+    /** @return the number of invocations that were answered from the cache */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** @return the number of cacheable invocations that had to spawn a process */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** @return the number of results currently held in memory */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Removes all results from memory. Results on disk are kept. */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    InvocationKey key(InvocationKey.Builder builder, List<File> inputFiles) throws IOException {
+        for (String name : inheritedVariables) {
+            builder.add(name).add(System.getenv(name));
+        }
+        for (File file : inputFiles) {
+            builder.add(file);
+        }
+        return builder.build();
+    }
+
+    ProcResult get(InvocationKey key) {
+        ProcResult result;
+        synchronized (this) {
+            result = entries.get(key);
+        }
+        if (result == null && directory != null) {
+            result = load(key);
+            if (result != null) {
+                store(key, result);
+            }
+        }
+        (result != null ? hits : misses).incrementAndGet();
+        return result != null ? result.copy() : null;
+    }
+
+    void put(InvocationKey key, ProcResult result) {
+        store(key, result.copy());
+        if (directory != null) {
+            save(key, result);
+        }
+    }
+
+    private synchronized void store(InvocationKey key, ProcResult result) {
+        ProcResult previous = entries.put(key, result);
+        if (previous != null) {
+            bytes -= retainedSize(previous);
+        }
+        bytes += retainedSize(result);
+
+        Iterator<Map.Entry<InvocationKey, ProcResult>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            bytes -= retainedSize(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long retainedSize(ProcResult result) {
+        return retainedSize(result.getOutput()) + retainedSize(result.getError());
+    }
+
+    private static long retainedSize(ByteArrayOutputStream stream) {
+        if (stream instanceof CompressedByteArrayOutputStream) {
+            return ((CompressedByteArrayOutputStream) stream).compressedSize();
+        }
+        return stream.size();
+    }
+
+    private ProcResult load(InvocationKey key) {
+        File file = new File(directory, key.toString());
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != DISK_FORMAT_VERSION) {
+                return null;
+            }
+            String commandLine = in.readUTF();
+            int exitValue = in.readInt();
+            long executionTime = in.readLong();
+            long spawnTime = in.readLong();
+            Charset charset = Charset.forName(in.readUTF());
+            ByteArrayOutputStream output = readBytes(in);
+            ByteArrayOutputStream error = readBytes(in);
+            return new ProcResult(commandLine, output, exitValue, executionTime, spawnTime, null, error, charset);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void save(InvocationKey key, ProcResult result) {
+        File file = new File(directory, key.toString());
+        File temp = new File(directory, key + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+                out.writeInt(DISK_FORMAT_VERSION);
+                out.writeUTF(result.getCommandLine());
+                out.writeInt(result.getExitValue());
+                out.writeLong(result.getExecutionTime());
+                out.writeLong(result.getSpawnTime());
+                out.writeUTF(result.getCharset().name());
+                writeBytes(out, result.getOutputBytes());
+                writeBytes(out, result.getErrorBytes());
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            temp.delete();
+        }
+    }
+
+    private static ByteArrayOutputStream readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(bytes.length);
+        stream.write(bytes, 0, bytes.length);
+        return stream;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,141 @@
+package org.buildobjects.process;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs processes concurrently and treats them as a unit: when one of them fails, the others get
+ * terminated. Processes are started with {@link #fork(ProcBuilder)}, {@link #join()} waits for all
+ * of them and throws the first failure. Closing the scope terminates processes that are still
+ * running and waits for them, so no process outlives the scope:
+ *
+ * <pre>
+ * try (ProcScope scope = new ProcScope()) {
+ *     Future&lt;ProcResult&gt; first = scope.fork(new ProcBuilder("first"));
+ *     Future&lt;ProcResult&gt; second = scope.fork(new ProcBuilder("second"));
+ *     scope.join();
+ *     ...
+ * }
+ * </pre>
+ *
+ * Processes that got terminated because a sibling failed report a {@link CancellationException}
+ * from their future.
+ */
+public class ProcScope implements Closeable {
+    private final List<Fork> forks = new ArrayList<Fork>();
+    private RuntimeException failure;
+    private boolean closed;
+
+    /** Start running the process on a thread of its own. The builder must not be used
+     * elsewhere until the process has completed. If a process of the scope has failed already,
+     * the process doesn't get started and its future is cancelled.
+     * @param builder the process to run
+     * @return the future result of the process
+     * @throws IllegalStateException if the scope has been closed */
+    public synchronized Future<ProcResult> fork(ProcBuilder builder) {
+        if (closed) {
+            throw new IllegalStateException("The scope has been closed.");
+        }
+        Fork fork = new Fork(builder);
+        forks.add(fork);
+        if (failure != null) {
+            // A sibling has failed already, so the process doesn't get started at all.
+            fork.cancel();
+        } else {
+            fork.thread.start();
+        }
+        return fork.task;
+    }
+
+    /** Wait for all processes to complete.
+     * @throws StartupException if a process couldn't be started
+     * @throws TimeoutException if a process timed out
+     * @throws ExternalProcessFailureException if a process returned an unexpected exit value
+     * @throws InterruptedException if the waiting thread got interrupted, the processes keep running */
+    public void join() throws InterruptedException {
+        for (Fork fork : snapshot()) {
+            fork.thread.join();
+        }
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /** Terminate the processes that are still running and wait for them. */
+    public void close() {
+        List<Fork> forks;
+        synchronized (this) {
+            closed = true;
+            forks = new ArrayList<Fork>(this.forks);
+        }
+        for (Fork fork : forks) {
+            fork.cancel();
+        }
+        boolean interrupted = false;
+        for (Fork fork : forks) {
+            while (fork.thread.isAlive()) {
+                try {
+                    fork.thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized List<Fork> snapshot() {
+        return new ArrayList<Fork>(forks);
+    }
+
+    private synchronized void failed(Fork failed, RuntimeException e) {
+        if (failure != null) {
+            return;
+        }
+        failure = e;
+        for (Fork fork : forks) {
+            // The failed fork reports its own exception.
+            if (fork != failed) {
+                fork.cancel();
+            }
+        }
+    }
+
+    private class Fork {
+        final ProcControl control = new ProcControl();
+        final FutureTask<ProcResult> task;
+        final Thread thread;
+
+        Fork(final ProcBuilder builder) {
+            task = new FutureTask<ProcResult>(new Callable<ProcResult>() {
+                public ProcResult call() {
+                    try {
+                        return builder.run(control);
+                    } catch (RuntimeException e) {
+                        if (!control.isTerminationRequested()) {
+                            failed(Fork.this, e);
+                        }
+                        throw e;
+                    }
+                }
+            });
+            thread = new Thread(task);
+        }
+
+        void cancel() {
+            // Cancelled first, so that a process completing once terminated doesn't complete its future.
+            if (task.cancel(false)) {
+                control.terminate();
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.buildobjects.process;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spawns processes through a small launcher JVM instead of forking the current one. The launcher
+ * gets started on first use and runs with a small heap, so the cost of launching a process
+ * doesn't grow with the heap of the application. The streams of the processes are relayed through
+ * the standard input and output of the launcher.
+ *
+ * A launcher can be shared between builders and threads, see
+ * {@link ProcBuilder#withLauncher(ProcessLauncher)}. Closing it kills the processes still running
+ * and stops the launcher.
+ */
+public class ProcessLauncher implements Closeable {
+    private final LaunchMechanism mechanism;
+    private final Map<Integer, RemoteProcess> processes = new ConcurrentHashMap<Integer, RemoteProcess>();
+    private final AtomicInteger ids = new AtomicInteger();
+    // Sends frames on behalf of the receiver, one at a time and in order. The receiver must never wait for
+    // the launcher to take input, as the launcher may be waiting for the receiver to take its output.
+    private final ExecutorService writer = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "jproc-launcher-writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    private Process launcher;
+    private DataOutputStream out;
+
+    /** Create a launcher that uses the launch mechanism selected for this JVM */
+    public ProcessLauncher() {
+        this(LaunchMechanism.current());
+    }
+
+    /** Create a launcher that uses the given launch mechanism, independent of the one of this JVM
+     * @param mechanism the mechanism the launcher uses to spawn processes */
+    public ProcessLauncher(LaunchMechanism mechanism) {
+        this.mechanism = mechanism;
+    }
+
+    Process start(String[] command, Map<String, String> env, boolean clearEnvironment, File directory) throws IOException {
+        int id = ids.incrementAndGet();
+        RemoteProcess process = new RemoteProcess(this, id);
+        processes.put(id, process);
+        try {
+            synchronized (this) {
+                ensureRunning();
+                out.writeByte(Launcher.SPAWN);
+                out.writeInt(id);
+                out.writeInt(command.length);
+                for (String arg : command) {
+                    Launcher.writeString(out, arg);
+                }
+                out.writeBoolean(clearEnvironment);
+                out.writeInt(env.size());
+                for (Map.Entry<String, String> var : env.entrySet()) {
+                    Launcher.writeString(out, var.getKey());
+                    Launcher.writeString(out, var.getValue());
+                }
+                out.writeBoolean(directory != null);
+                if (directory != null) {
+                    Launcher.writeString(out, directory.getAbsolutePath());
+                }
+                out.flush();
+            }
+            process.awaitStart();
+            return process;
+        } catch (IOException e) {
+            processes.remove(id);
+            throw e;
+        }
+    }
+
+    synchronized void send(byte type, int id, byte[] data) throws IOException {
+        if (out == null) {
+            throw new IOException("The launcher is not running.");
+        }
+        Launcher.writeFrame(out, type, id, data);
+        out.flush();
+    }
+
+    /** Like {@link #send(byte, int, byte[])}, but returns right away. Frames that can't be sent get dropped, as
+     * the launcher is gone then. */
+    void sendLater(final byte type, final int id, final byte[] data) {
+        writer.execute(new Runnable() {
+            public void run() {
+                try {
+                    send(type, id, data);
+                } catch (IOException e) {
+                    // The launcher is gone, and with it the process.
+                }
+            }
+        });
+    }
+
+    private void ensureRunning() throws IOException {
+        if (launcher != null) {
+            return;
+        }
+        List<String> command = new ArrayList<String>(Arrays.asList(
+            new File(new File(System.getProperty("java.home"), "bin"), "java").getPath(),
+            "-Xmx32m", "-XX:+UseSerialGC", "-XX:TieredStopAtLevel=1"));
+        if (mechanism != null) {
+            command.add("-D" + LaunchMechanism.PROPERTY + "=" + mechanism.name());
+        }
+        command.addAll(Arrays.asList("-cp", classPath(), Launcher.class.getName()));
+
+        LaunchMechanism.processStarting();
+        final Process started = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        launcher = started;
+        out = new DataOutputStream(new BufferedOutputStream(started.getOutputStream()));
+
+        Thread receiver = new Thread(new Runnable() {
+            public void run() {
+                receive(started, new DataInputStream(new BufferedInputStream(started.getInputStream())));
+            }
+        }, "jproc-launcher");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    private void receive(Process started, DataInputStream in) {
+        try {
+            while (true) {
+                byte type = in.readByte();
+                int id = in.readInt();
+                byte[] data = Launcher.readBytes(in);
+                RemoteProcess process = processes.get(id);
+                if (process == null) {
+                    continue;
+                }
+                if (process.received(type, data)) {
+                    processes.remove(id);
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                if (launcher == started) {
+                    launcher = null;
+                    out = null;
+                }
+            }
+            started.destroy();
+            for (RemoteProcess process : processes.values()) {
+                process.fail("The launcher has terminated.");
+            }
+            processes.clear();
+        }
+    }
+
+    private static String classPath() throws IOException {
+        try {
+            return new File(Launcher.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        } catch (URISyntaxException | RuntimeException e) {
+            throw new IOException("Can't determine the class path for the launcher.", e);
+        }
+    }
+
+    /** Stop the launcher, processes that are still running get killed. */
+    public synchronized void close() throws IOException {
+        if (launcher == null) {
+            return;
+        }
+        try {
+            out.close();
+        } finally {
+            launcher = null;
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.buildobjects.process;
+
+/**
+ * The byte counts and timing of a running process, as reported to a {@link ProgressListener}.
+ */
+public class Progress {
+    private final long inputBytes;
+    private final long outputBytes;
+    private final long errorBytes;
+    private final long elapsedTime;
+    private final long timeSinceOutput;
+    private final boolean finished;
+
+    Progress(long inputBytes, long outputBytes, long errorBytes, long elapsedTime, long timeSinceOutput, boolean finished) {
+        this.inputBytes = inputBytes;
+        this.outputBytes = outputBytes;
+        this.errorBytes = errorBytes;
+        this.elapsedTime = elapsedTime;
+        this.timeSinceOutput = timeSinceOutput;
+        this.finished = finished;
+    }
+
+    /** @return the bytes written to the standard input of the process so far */
+    public long getInputBytes() {
+        return inputBytes;
+    }
+
+    /** @return the bytes read from the standard output so far */
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    /** @return the bytes read from the standard error so far */
+    public long getErrorBytes() {
+        return errorBytes;
+    }
+
+    /** @return the time since the process has been started, in milliseconds */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /** @return the time since the last output on either stream, or since the start if there was none,
+     *          in milliseconds */
+    public long getTimeSinceOutput() {
+        return timeSinceOutput;
+    }
+
+    /** @return true for the last report, after the output of the process has been consumed */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public String toString() {
+        return "Progress{in=" + inputBytes + ", out=" + outputBytes + ", err=" + errorBytes +
+            ", elapsed=" + elapsedTime + "ms, sinceOutput=" + timeSinceOutput + "ms}";
+    }
+}
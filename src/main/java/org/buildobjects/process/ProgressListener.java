@@ -0,0 +1,10 @@
+package org.buildobjects.process;
+
+/**
+ * Receives the progress of a running process, see {@link ProcBuilder#withProgressListener(ProgressListener, int)}.
+ * The listener gets called on a thread shared by all processes, so it should return quickly. Exceptions it
+ * throws are ignored.
+ */
+public interface ProgressListener {
+    void progress(Progress progress);
+}
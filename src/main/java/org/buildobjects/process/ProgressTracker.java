@@ -0,0 +1,108 @@
+package org.buildobjects.process;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Counts the bytes passing through the pipes of a process and reports them to a {@link ProgressListener}
+ * at a fixed rate. The pumps only add to counters, the listener gets called on a daemon thread shared by
+ * all processes, so that a slow listener doesn't hold up the sampling of resources and CPU time.
+ */
+class ProgressTracker implements Runnable {
+    private static final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "jproc-progress");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final ProgressListener listener;
+    private final long intervalMillis;
+
+    private final AtomicLong inputBytes = new AtomicLong();
+    private final AtomicLong outputBytes = new AtomicLong();
+    private final AtomicLong errorBytes = new AtomicLong();
+    private final long start = System.nanoTime();
+    private volatile long lastOutput = start;
+    private ScheduledFuture<?> future;
+
+    ProgressTracker(ProgressListener listener, long intervalMillis) {
+        this.listener = listener;
+        this.intervalMillis = intervalMillis;
+    }
+
+    synchronized void start() {
+        future = reporter.scheduleAtFixedRate(this, intervalMillis, intervalMillis, MILLISECONDS);
+    }
+
+    public synchronized void run() {
+        if (future != null) {
+            report(false);
+        }
+    }
+
+    /** Stop reporting, after a final report */
+    synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+            report(true);
+        }
+    }
+
+    private void report(boolean finished) {
+        long now = System.nanoTime();
+        try {
+            listener.progress(new Progress(inputBytes.get(), outputBytes.get(), errorBytes.get(),
+                NANOSECONDS.toMillis(now - start), NANOSECONDS.toMillis(now - lastOutput), finished));
+        } catch (RuntimeException e) {
+            // Listeners must not interfere with the process, nor cancel the reports to come.
+        }
+    }
+
+    /** @return a stream counting the bytes written to the standard input of the process */
+    OutputStream countInput(OutputStream in) {
+        return new FilterOutputStream(in) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                inputBytes.incrementAndGet();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                inputBytes.addAndGet(len);
+            }
+        };
+    }
+
+    /** @return a tee counting the bytes read from the standard output */
+    Tee outputTap() {
+        return counter(outputBytes).tee();
+    }
+
+    /** @return a tee counting the bytes read from the standard error */
+    Tee errorTap() {
+        return counter(errorBytes).tee();
+    }
+
+    private CountingTap counter(AtomicLong bytes) {
+        return new CountingTap(bytes) {
+            @Override
+            void counted() {
+                lastOutput = System.nanoTime();
+            }
+        };
+    }
+}
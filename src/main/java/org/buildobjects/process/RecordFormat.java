@@ -0,0 +1,16 @@
+package org.buildobjects.process;
+
+/**
+ * Describes how a stream is split into records. Formats are obtained from {@link Records} and
+ * can be used with {@link ProcBuilder#records(RecordFormat)}.
+ *
+ * @param <T> type of the records
+ */
+public interface RecordFormat<T> {
+
+    /**
+     * @param handler receives the records
+     * @return a consumer that splits a stream into records and passes them to the handler
+     */
+    StreamConsumer consumer(RecordHandler<T> handler);
+}
@@ -0,0 +1,18 @@
+package org.buildobjects.process;
+
+import java.io.IOException;
+
+/**
+ * Receives the records parsed from a stream by one of the consumers created by {@link Records}.
+ *
+ * @param <T> type of the records
+ */
+public interface RecordHandler<T> {
+
+    /**
+     * Gets called from the thread consuming the stream, once for each record as soon as it is complete.
+     *
+     * @param record the record
+     */
+    void handle(T record) throws IOException;
+}
@@ -0,0 +1,159 @@
+package org.buildobjects.process;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Iterates over the records a running process writes to its standard output. Records are
+ * handed over through a bounded queue, so a process that produces output faster than it is
+ * consumed gets blocked rather than buffered in memory.
+ *
+ * The iterator must be closed. Closing it before all records have been read terminates the
+ * process. Once the process has completed, closing (as well as reaching the end of the
+ * iteration) applies the checks {@link ProcBuilder#run()} applies, i.e. it throws a
+ * {@link TimeoutException} or an {@link ExternalProcessFailureException} if appropriate.
+ *
+ * On Java 8 and later the iterator can be turned into a stream using
+ * `StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false).onClose(...)`.
+ *
+ * @param <T> type of the records
+ */
+public class RecordIterator<T> implements Iterator<T>, Closeable {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private static final Object END = new Object();
+    private static final long POLL_INTERVAL_MILLIS = 50;
+
+    private final BlockingQueue<Object> queue;
+    private final ProcControl control = new ProcControl();
+    private final Thread runner;
+
+    private volatile boolean closed;
+    private volatile RuntimeException failure;
+    private Object next;
+    private boolean completed;
+
+    RecordIterator(final ProcBuilder builder, RecordFormat<T> format, int capacity) {
+        queue = new ArrayBlockingQueue<Object>(capacity);
+        final StreamConsumer consumer = format.consumer(new RecordHandler<T>() {
+            public void handle(T record) throws IOException {
+                enqueue(record);
+            }
+        });
+
+        runner = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    builder.run(new StreamConsumer() {
+                        public void consume(InputStream stream) throws IOException {
+                            consumer.consume(stream);
+                            enqueue(END);
+                        }
+                    }, control);
+                } catch (CancellationException e) {
+                    // Closed before the process got a slot to launch in.
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+        });
+        runner.start();
+    }
+
+    private void enqueue(Object item) throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while handing over record.");
+        }
+    }
+
+    public boolean hasNext() {
+        if (next == null) {
+            next = take();
+        }
+        if (next == END) {
+            complete();
+            return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object record = next;
+        next = null;
+        return (T) record;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private Object take() {
+        if (closed) {
+            return END;
+        }
+        try {
+            while (true) {
+                Object item = queue.poll(POLL_INTERVAL_MILLIS, MILLISECONDS);
+                if (item != null) {
+                    return item;
+                }
+                if (!runner.isAlive()) {
+                    item = queue.poll();
+                    return item != null ? item : END;
+                }
+            }
+        } catch (InterruptedException e) {
+            close();
+            throw new RuntimeException("Interrupted while waiting for record.", e);
+        }
+    }
+
+    /**
+     * Terminates the process if it is still running and waits for it to complete.
+     *
+     * @throws TimeoutException if the timeout kicked in
+     * @throws ExternalProcessFailureException if the process completed on its own with an
+     *         unexpected exit status
+     */
+    public void close() {
+        if (!closed) {
+            closed = true;
+            control.terminate();
+            queue.clear();
+        }
+        complete();
+    }
+
+    private void complete() {
+        if (completed) {
+            return;
+        }
+        completed = true;
+        try {
+            runner.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while waiting for process to complete.", e);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
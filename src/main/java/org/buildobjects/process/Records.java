@@ -0,0 +1,127 @@
+package org.buildobjects.process;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Factory for {@link StreamConsumer}s that split a stream into records and hand each record to a
+ * {@link RecordHandler} as soon as it has been read. This allows processing record oriented output
+ * while the process is still running, without holding the whole output in memory.
+ *
+ * The variants without a handler return a {@link RecordFormat}, which can also be used to iterate
+ * over the records with {@link ProcBuilder#records(RecordFormat)}.
+ */
+public class Records {
+
+    private Records() {
+    }
+
+    /**
+     * Splits the stream into records terminated by NUL bytes, as produced by `find -print0` or
+     * `git ls-files -z`.
+     *
+     * @param handler gets called with each record, excluding the terminator
+     * @return a consumer to be passed to {@link ProcBuilder#withOutputConsumer(StreamConsumer)}
+     */
+    public static StreamConsumer nulDelimited(RecordHandler<byte[]> handler) {
+        return nulDelimited().consumer(handler);
+    }
+
+    /** @return the format of NUL-terminated records
+     *  @see #nulDelimited(RecordHandler) */
+    public static RecordFormat<byte[]> nulDelimited() {
+        return delimited((byte) 0);
+    }
+
+    /**
+     * Splits the stream into records terminated by the given byte. A trailing record without
+     * terminator is passed on as well.
+     *
+     * @param delimiter the byte terminating each record
+     * @param handler gets called with each record, excluding the terminator
+     * @return a consumer to be passed to {@link ProcBuilder#withOutputConsumer(StreamConsumer)}
+     */
+    public static StreamConsumer delimited(byte delimiter, RecordHandler<byte[]> handler) {
+        return delimited(delimiter).consumer(handler);
+    }
+
+    /** @param delimiter the byte terminating each record
+     *  @return the format of records terminated by the given byte
+     *  @see #delimited(byte, RecordHandler) */
+    public static RecordFormat<byte[]> delimited(final byte delimiter) {
+        return new RecordFormat<byte[]>() {
+            public StreamConsumer consumer(RecordHandler<byte[]> handler) {
+                return new DelimitedRecordConsumer(delimiter, handler);
+            }
+        };
+    }
+
+    /**
+     * Splits the stream into binary records of a fixed size. If the stream ends in the middle of
+     * a record, the consumption fails.
+     *
+     * @param recordSize the size of each record in bytes
+     * @param handler gets called with each record
+     * @return a consumer to be passed to {@link ProcBuilder#withOutputConsumer(StreamConsumer)}
+     */
+    public static StreamConsumer fixedSize(int recordSize, RecordHandler<byte[]> handler) {
+        return fixedSize(recordSize).consumer(handler);
+    }
+
+    /** @param recordSize the size of each record in bytes
+     *  @return the format of binary records of a fixed size
+     *  @see #fixedSize(int, RecordHandler) */
+    public static RecordFormat<byte[]> fixedSize(final int recordSize) {
+        return new RecordFormat<byte[]>() {
+            public StreamConsumer consumer(RecordHandler<byte[]> handler) {
+                return new FixedSizeRecordConsumer(recordSize, handler);
+            }
+        };
+    }
+
+    /**
+     * Splits JSON lines output, as produced by `jq -c`, into one frame per JSON value. Frames are
+     * decoded as UTF-8, line terminators and blank lines are dropped. The frames are not parsed.
+     *
+     * @param handler gets called with the text of each frame
+     * @return a consumer to be passed to {@link ProcBuilder#withOutputConsumer(StreamConsumer)}
+     */
+    public static StreamConsumer jsonLines(RecordHandler<String> handler) {
+        return jsonLines().consumer(handler);
+    }
+
+    /** @return the format of JSON lines output
+     *  @see #jsonLines(RecordHandler) */
+    public static RecordFormat<String> jsonLines() {
+        return lines(UTF_8, true);
+    }
+
+    /**
+     * @param charset the charset to decode the lines with
+     * @return the format of text lines terminated by `\n` or `\r\n`. Line terminators are dropped.
+     */
+    public static RecordFormat<String> lines(Charset charset) {
+        return lines(charset, false);
+    }
+
+    private static RecordFormat<String> lines(final Charset charset, final boolean skipBlankLines) {
+        return new RecordFormat<String>() {
+            public StreamConsumer consumer(final RecordHandler<String> handler) {
+                return new DelimitedRecordConsumer((byte) '\n', new RecordHandler<byte[]>() {
+                    public void handle(byte[] record) throws IOException {
+                        int length = record.length;
+                        if (length > 0 && record[length - 1] == '\r') {
+                            length--;
+                        }
+                        String line = new String(record, 0, length, charset);
+                        if (!skipBlankLines || !line.trim().isEmpty()) {
+                            handler.handle(line);
+                        }
+                    }
+                });
+            }
+        };
+    }
+}
@@ -0,0 +1,255 @@
+package org.buildobjects.process;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A process spawned by the launcher of a {@link ProcessLauncher}. The streams relay the frames
+ * exchanged with the launcher. Writing to the standard input blocks while a window of it is in
+ * flight, and reading the output gives credit for more to the launcher.
+ */
+class RemoteProcess extends Process {
+    private static final byte[] END = new byte[0];
+
+    private final ProcessLauncher launcher;
+    private final int id;
+    private final RelayInputStream stdout = new RelayInputStream(Launcher.STDOUT);
+    private final RelayInputStream stderr = new RelayInputStream(Launcher.STDERR);
+    private final Launcher.Window stdinWindow = new Launcher.Window();
+    private final OutputStream stdin;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch exited = new CountDownLatch(1);
+    private volatile String failure;
+    private volatile int exitValue;
+    private volatile long pid = -1;
+    private int openStreams = 2;
+
+    RemoteProcess(final ProcessLauncher launcher, final int id) {
+        this.launcher = launcher;
+        this.id = id;
+        this.stdin = new BufferedOutputStream(new OutputStream() {
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                for (int start = off; start < off + len; start += Launcher.CHUNK_SIZE) {
+                    int n = Math.min(Launcher.CHUNK_SIZE, off + len - start);
+                    try {
+                        if (!stdinWindow.acquire(n)) {
+                            throw new IOException("Broken pipe");
+                        }
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                    byte[] data = new byte[n];
+                    System.arraycopy(b, start, data, 0, n);
+                    launcher.send(Launcher.STDIN, id, data);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    launcher.send(Launcher.CLOSE, id, null);
+                }
+            }
+        }, 8192);
+    }
+
+    void awaitStart() throws IOException {
+        try {
+            started.await();
+        } catch (InterruptedException e) {
+            destroy();
+            throw new InterruptedIOException("Interrupted while waiting for the launcher.");
+        }
+        if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+
+    /** @return true once the process has exited and both output streams have ended, i.e.
+     *          no more frames are expected for it */
+    boolean received(byte type, byte[] data) {
+        switch (type) {
+            case Launcher.STARTED:
+                pid = ByteBuffer.wrap(data).getLong();
+                started.countDown();
+                break;
+            case Launcher.FAILED:
+                fail(new String(data, Launcher.UTF_8));
+                break;
+            case Launcher.STDOUT:
+                stdout.add(data);
+                break;
+            case Launcher.STDERR:
+                stderr.add(data);
+                break;
+            case Launcher.CREDIT:
+                stdinWindow.release(ByteBuffer.wrap(data, 1, 4).getInt());
+                break;
+            case Launcher.EXIT:
+                exitValue = ByteBuffer.wrap(data).getInt();
+                // Like a pipe, the standard input of an exited process takes no more data.
+                stdinWindow.close();
+                exited.countDown();
+                break;
+        }
+        if ((type == Launcher.STDOUT || type == Launcher.STDERR) && data.length == 0) {
+            openStreams--;
+        }
+        return failure != null || (exited.getCount() == 0 && openStreams == 0);
+    }
+
+    /** Called when the launcher has gone away or the spawn failed. */
+    void fail(String message) {
+        if (started.getCount() > 0) {
+            failure = message;
+            started.countDown();
+        }
+        stdinWindow.close();
+        stdout.chunks.add(END);
+        stderr.chunks.add(END);
+        if (exited.getCount() > 0) {
+            exitValue = -1;
+            exited.countDown();
+        }
+    }
+
+    /** @return the pid of the process, as reported by the launcher, or -1 if it is unknown */
+    public long pid() {
+        return pid;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return stdin;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return stdout;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return stderr;
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+        exited.await();
+        return exitValue;
+    }
+
+    @Override
+    public int exitValue() {
+        if (exited.getCount() > 0) {
+            throw new IllegalThreadStateException("process hasn't exited");
+        }
+        return exitValue;
+    }
+
+    @Override
+    public void destroy() {
+        try {
+            launcher.send(Launcher.KILL, id, null);
+        } catch (IOException e) {
+            // The launcher is gone, and with it the process.
+        }
+    }
+
+    /** Relays the chunks received from the launcher, an empty chunk marks the end of the stream. Once a chunk
+     * has been read, the launcher gets credit for it. If reading gets interrupted, the stream is deemed
+     * abandoned and chunks get credited without being read, so that the process doesn't block on its pipe. */
+    private class RelayInputStream extends InputStream {
+        final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<byte[]>();
+        private final byte type;
+        private byte[] chunk;
+        private int position;
+        private volatile boolean abandoned;
+
+        RelayInputStream(byte type) {
+            this.type = type;
+        }
+
+        void add(byte[] data) {
+            chunks.add(data);
+            if (abandoned) {
+                discard();
+            }
+        }
+
+        private void discard() {
+            for (byte[] data = chunks.poll(); data != null; data = chunks.poll()) {
+                credit(data.length);
+            }
+        }
+
+        private void credit(int bytes) {
+            if (bytes == 0) {
+                return;
+            }
+            // Called on the receiving thread as well, which must not block on sending.
+            launcher.sendLater(Launcher.CREDIT, id, Launcher.credit(type, bytes));
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (chunk != null && chunk.length == 0) {
+                return -1;
+            }
+            if (chunk == null || position == chunk.length) {
+                if (chunk != null) {
+                    credit(chunk.length);
+                }
+                try {
+                    chunk = chunks.take();
+                } catch (InterruptedException e) {
+                    chunk = null;
+                    abandoned = true;
+                    discard();
+                    throw new InterruptedIOException();
+                }
+                position = 0;
+                if (chunk.length == 0) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public synchronized int available() {
+            return chunk == null ? 0 : chunk.length - position;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.buildobjects.process;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Signals that an external process got terminated because it exceeded one of its
+ * {@link ResourceLimits}.
+ *
+ * The exceeded limit is inferred from the exit status alone, as Java doesn't tell a process killed by a
+ * signal from one that exited with 128 plus the number of the signal. So a process that exits with 152
+ * while a CPU time limit is set, or with 153 while a file size limit is set, is reported as having
+ * exceeded that limit even if it exited by itself. A process that ignores SIGXCPU gets killed by SIGKILL
+ * at the hard CPU time limit a second later, its exit status 137 is reported as a plain
+ * {@link ExternalProcessFailureException}. And nothing is reported if the exit status is expected or
+ * ignored, see {@link ProcBuilder#withExpectedExitStatuses(int...)} and {@link ProcBuilder#ignoreExitStatus()}.
+ */
+public class ResourceLimitExceededException extends ExternalProcessFailureException {
+    private final ResourceLimits.Limit limit;
+
+    ResourceLimitExceededException(ResourceLimits.Limit limit, String command, String commandLine, int exitValue, String stderr,
+                                   ByteArrayOutputStream stdOut, long time, ResourceUsage resourceUsage, Charset charset) {
+        super(command, commandLine, exitValue, stderr, stdOut, time, resourceUsage, charset);
+        this.limit = limit;
+    }
+
+    @Override
+    String describeFailure() {
+        return "exceeded its " + limit + " limit";
+    }
+
+    /**
+     * @return the limit that has been exceeded
+     */
+    public ResourceLimits.Limit getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,148 @@
+package org.buildobjects.process;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Constrains the resources a process may use, see {@link ProcBuilder#withResourceLimits(ResourceLimits)}.
+ * The limits get applied by running the process through the Linux utilities {@code prlimit},
+ * {@code nice}, {@code ionice} and {@code taskset}, which need to be on the path.
+ *
+ * Exceeding the CPU time or file size limit terminates the process with a signal, which gets reported as
+ * {@link ResourceLimitExceededException}, with the limitations described there. Exceeding the address space or open files limit makes the
+ * respective allocation fail, how the process reacts to that is up to the process.
+ */
+public class ResourceLimits {
+
+    /** The resources that can be limited through rlimits */
+    public enum Limit {
+        ADDRESS_SPACE("as", "address space"),
+        CPU_TIME("cpu", "CPU time"),
+        FILE_SIZE("fsize", "file size"),
+        OPEN_FILES("nofile", "open files");
+
+        private final String option;
+        private final String description;
+
+        Limit(String option, String description) {
+            this.option = option;
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    /** Exit value of a process killed by SIGXCPU */
+    static final int CPU_TIME_EXCEEDED = 128 + 24;
+    /** Exit value of a process killed by SIGXFSZ */
+    static final int FILE_SIZE_EXCEEDED = 128 + 25;
+
+    private Long addressSpace;
+    private Long cpuTime;
+    private Long fileSize;
+    private Integer openFiles;
+    private Integer niceness;
+    private int[] ioPriority;
+    private int[] cpuAffinity;
+
+    /** @param bytes the maximum size of the virtual memory of the process
+     * @return this, for chaining */
+    public ResourceLimits withAddressSpace(long bytes) {
+        this.addressSpace = bytes;
+        return this;
+    }
+
+    /** @param seconds the CPU time the process may consume
+     * @return this, for chaining */
+    public ResourceLimits withCpuTime(long seconds) {
+        this.cpuTime = seconds;
+        return this;
+    }
+
+    /** @param bytes the maximum size of files the process writes
+     * @return this, for chaining */
+    public ResourceLimits withFileSize(long bytes) {
+        this.fileSize = bytes;
+        return this;
+    }
+
+    /** @param count the maximum number of file descriptors the process may have open
+     * @return this, for chaining */
+    public ResourceLimits withOpenFiles(int count) {
+        this.openFiles = count;
+        return this;
+    }
+
+    /** @param niceness the scheduling niceness, from -20 (most favorable) to 19 (least favorable)
+     * @return this, for chaining */
+    public ResourceLimits withNiceness(int niceness) {
+        this.niceness = niceness;
+        return this;
+    }
+
+    /** @param ioClass the I/O scheduling class, 1 for realtime, 2 for best-effort and 3 for idle
+     * @param level the priority within the class, from 0 (highest) to 7, ignored for the idle class
+     * @return this, for chaining */
+    public ResourceLimits withIoPriority(int ioClass, int level) {
+        this.ioPriority = new int[]{ioClass, level};
+        return this;
+    }
+
+    /** @param cpus the CPUs the process may run on
+     * @return this, for chaining */
+    public ResourceLimits withCpuAffinity(int... cpus) {
+        this.cpuAffinity = cpus.clone();
+        return this;
+    }
+
+    /** @return the command that applies the limits and runs the command appended to it */
+    List<String> wrapperCommand() {
+        List<String> command = new ArrayList<String>();
+        List<String> rlimits = new ArrayList<String>();
+        addRlimit(rlimits, Limit.ADDRESS_SPACE, addressSpace, addressSpace);
+        // The soft limit raises SIGXCPU, the hard limit a second later SIGKILL, in case the former is ignored.
+        addRlimit(rlimits, Limit.CPU_TIME, cpuTime, cpuTime != null ? cpuTime + 1 : null);
+        addRlimit(rlimits, Limit.FILE_SIZE, fileSize, fileSize);
+        addRlimit(rlimits, Limit.OPEN_FILES, openFiles, openFiles);
+        if (!rlimits.isEmpty()) {
+            command.add("prlimit");
+            command.addAll(rlimits);
+            command.add("--");
+        }
+        if (niceness != null) {
+            command.addAll(Arrays.asList("nice", "-n", String.valueOf(niceness)));
+        }
+        if (ioPriority != null) {
+            command.addAll(Arrays.asList("ionice", "-c", String.valueOf(ioPriority[0]), "-n", String.valueOf(ioPriority[1])));
+        }
+        if (cpuAffinity != null && cpuAffinity.length > 0) {
+            StringBuilder cpus = new StringBuilder();
+            for (int cpu : cpuAffinity) {
+                cpus.append(cpus.length() > 0 ? "," : "").append(cpu);
+            }
+            command.addAll(Arrays.asList("taskset", "-c", cpus.toString()));
+        }
+        return command;
+    }
+
+    private static void addRlimit(List<String> options, Limit limit, Number soft, Number hard) {
+        if (soft != null) {
+            options.add("--" + limit.option + "=" + soft + ":" + hard);
+        }
+    }
+
+    /** @return the limit that got exceeded if the exit value signals that, otherwise null */
+    Limit exceededLimit(int exitValue) {
+        if (cpuTime != null && exitValue == CPU_TIME_EXCEEDED) {
+            return Limit.CPU_TIME;
+        }
+        if (fileSize != null && exitValue == FILE_SIZE_EXCEEDED) {
+            return Limit.FILE_SIZE;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,80 @@
+package org.buildobjects.process;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Periodically samples the resource usage of a running process. The samplers and watchdogs of
+ * all processes share a single daemon thread.
+ */
+class ResourceSampler implements Runnable {
+    static final long INTERVAL_MILLIS = 50;
+
+    static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "jproc-resource-sampler");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final long pid;
+    private final ScheduledFuture<?> future;
+    private long userCpuTime;
+    private long systemCpuTime;
+    private long peakResidentSetSize;
+    private long bytesRead;
+    private long bytesWritten;
+    private boolean exited;
+
+    private ResourceSampler(long pid) {
+        this.pid = pid;
+        this.future = scheduler.scheduleAtFixedRate(this, 0, INTERVAL_MILLIS, MILLISECONDS);
+    }
+
+    /** @return a sampler for the process, or null if the platform doesn't support sampling */
+    static ResourceSampler start(Process process) {
+        long pid = ProcFs.pid(process);
+        if (pid < 0 || !ProcFs.isAvailable()) {
+            return null;
+        }
+        return new ResourceSampler(pid);
+    }
+
+    public synchronized void run() {
+        if (exited) {
+            return;
+        }
+        long[] cpuTimes = ProcFs.cpuTimes(pid);
+        if (cpuTimes == null) {
+            return;
+        }
+        userCpuTime = Math.max(userCpuTime, cpuTimes[0]);
+        systemCpuTime = Math.max(systemCpuTime, cpuTimes[1]);
+        peakResidentSetSize = Math.max(peakResidentSetSize, ProcFs.peakResidentSetSize(pid));
+        long[] io = ProcFs.ioBytes(pid);
+        if (io != null) {
+            bytesRead = Math.max(bytesRead, io[0]);
+            bytesWritten = Math.max(bytesWritten, io[1]);
+        }
+    }
+
+    /** Stop sampling once the process has been reaped, as its pid is free for reuse from then on */
+    synchronized void processExited() {
+        exited = true;
+        future.cancel(false);
+    }
+
+    /** Stop sampling.
+     * @return the usage as of the last sample */
+    synchronized ResourceUsage stop() {
+        future.cancel(false);
+        ResourceUsage usage = new ResourceUsage(userCpuTime, systemCpuTime, peakResidentSetSize, bytesRead, bytesWritten);
+        ResourceUsage.record(usage);
+        return usage;
+    }
+}
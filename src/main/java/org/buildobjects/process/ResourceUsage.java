@@ -0,0 +1,94 @@
+package org.buildobjects.process;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The resources a process consumed, as sampled from the proc file system while it was running,
+ * see {@link ProcBuilder#measureResourceUsage()}. CPU times include children the process has waited for.
+ * Sampling stops when the process has exited, as its proc entry disappears and its pid may get reused
+ * once it has been reaped. So consumption during the last sampling interval before the process exited
+ * is not accounted for.
+ */
+public class ResourceUsage {
+    private static final AtomicLong totalProcesses = new AtomicLong();
+    private static final AtomicLong totalUserCpuTime = new AtomicLong();
+    private static final AtomicLong totalSystemCpuTime = new AtomicLong();
+    private static final AtomicLong totalBytesRead = new AtomicLong();
+    private static final AtomicLong totalBytesWritten = new AtomicLong();
+    private static final AtomicLong maxResidentSetSize = new AtomicLong();
+
+    private final long userCpuTime;
+    private final long systemCpuTime;
+    private final long peakResidentSetSize;
+    private final long bytesRead;
+    private final long bytesWritten;
+
+    ResourceUsage(long userCpuTime, long systemCpuTime, long peakResidentSetSize, long bytesRead, long bytesWritten) {
+        this.userCpuTime = userCpuTime;
+        this.systemCpuTime = systemCpuTime;
+        this.peakResidentSetSize = peakResidentSetSize;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+    }
+
+    static void record(ResourceUsage usage) {
+        totalProcesses.incrementAndGet();
+        totalUserCpuTime.addAndGet(usage.userCpuTime);
+        totalSystemCpuTime.addAndGet(usage.systemCpuTime);
+        totalBytesRead.addAndGet(usage.bytesRead);
+        totalBytesWritten.addAndGet(usage.bytesWritten);
+        for (long max = maxResidentSetSize.get(); usage.peakResidentSetSize > max; max = maxResidentSetSize.get()) {
+            if (maxResidentSetSize.compareAndSet(max, usage.peakResidentSetSize)) {
+                break;
+            }
+        }
+    }
+
+    /** @return the accumulated usage of all processes measured in this JVM, the peak resident set size
+     *          is the maximum over all processes */
+    public static ResourceUsage total() {
+        return new ResourceUsage(totalUserCpuTime.get(), totalSystemCpuTime.get(), maxResidentSetSize.get(),
+            totalBytesRead.get(), totalBytesWritten.get());
+    }
+
+    /** @return the number of processes whose usage has been measured in this JVM */
+    public static long totalProcesses() {
+        return totalProcesses.get();
+    }
+
+    /** @return the CPU time spent in user mode in milliseconds */
+    public long getUserCpuTime() {
+        return userCpuTime;
+    }
+
+    /** @return the CPU time spent in kernel mode in milliseconds */
+    public long getSystemCpuTime() {
+        return systemCpuTime;
+    }
+
+    /** @return the CPU time spent in user and kernel mode in milliseconds */
+    public long getCpuTime() {
+        return userCpuTime + systemCpuTime;
+    }
+
+    /** @return the peak resident set size in bytes */
+    public long getPeakResidentSetSize() {
+        return peakResidentSetSize;
+    }
+
+    /** @return the bytes the process caused to be read from storage */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /** @return the bytes the process caused to be written to storage */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public String toString() {
+        return "user " + userCpuTime + "ms, system " + systemCpuTime + "ms, peak RSS " + peakResidentSetSize +
+            " bytes, read " + bytesRead + " bytes, written " + bytesWritten + " bytes";
+    }
+}
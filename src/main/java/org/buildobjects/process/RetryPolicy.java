@@ -0,0 +1,72 @@
+package org.buildobjects.process;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Determines which failures of a process are transient and get retried, see
+ * {@link ProcBuilder#withRetryPolicy(RetryPolicy)}. Nothing is retried unless configured with
+ * {@link #retryOnExitStatuses(int...)} or {@link #retryOnTimeout()}.
+ *
+ * Attempts are separated by an exponential backoff, by default starting at 100ms and doubling up
+ * to 10s. If the last attempt fails its exception is thrown.
+ */
+public class RetryPolicy {
+    private final int maxAttempts;
+    private final Set<Integer> exitStatuses = new HashSet<Integer>();
+    private boolean retryOnTimeout;
+    private long initialDelayMillis = 100;
+    private double multiplier = 2;
+    private long maxDelayMillis = 10000;
+
+    /** @param maxAttempts the number of times the process gets run at most, including the first attempt */
+    public RetryPolicy(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("There needs to be at least one attempt.");
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    /** @param statuses exit values that indicate a transient failure
+     * @return this, for chaining */
+    public RetryPolicy retryOnExitStatuses(int... statuses) {
+        for (int status : statuses) {
+            exitStatuses.add(status);
+        }
+        return this;
+    }
+
+    /** Retry processes that ran into any of their timeouts.
+     * @return this, for chaining */
+    public RetryPolicy retryOnTimeout() {
+        this.retryOnTimeout = true;
+        return this;
+    }
+
+    /** @param initialDelayMillis the delay before the second attempt
+     * @param multiplier the factor the delay grows by with each further attempt
+     * @param maxDelayMillis the upper bound of the delay
+     * @return this, for chaining */
+    public RetryPolicy withBackoff(long initialDelayMillis, double multiplier, long maxDelayMillis) {
+        this.initialDelayMillis = initialDelayMillis;
+        this.multiplier = multiplier;
+        this.maxDelayMillis = maxDelayMillis;
+        return this;
+    }
+
+    boolean shouldRetry(RuntimeException failure, int attempts) {
+        if (attempts >= maxAttempts) {
+            return false;
+        }
+        if (failure instanceof ExternalProcessFailureException) {
+            return exitStatuses.contains(((ExternalProcessFailureException) failure).getExitValue());
+        }
+        return retryOnTimeout && failure instanceof TimeoutException;
+    }
+
+    /** @return the delay in milliseconds after the given number of failed attempts */
+    long delay(int attempts) {
+        double delay = initialDelayMillis * Math.pow(multiplier, attempts - 1);
+        return (long) Math.min(delay, maxDelayMillis);
+    }
+}
@@ -0,0 +1,190 @@
+package org.buildobjects.process;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decouples reading from a stream from consuming it through the ring buffer of an {@link OutputBuffer}.
+ * A pump thread reads the source into the ring, the consumer reads from the ring. Without a source,
+ * the ring gets filled through {@link #put(byte[], int, int)} and {@link #finish(IOException)}.
+ */
+class RingBufferInputStream extends InputStream implements Runnable {
+    private final InputStream source;
+    private final OutputBuffer buffer;
+    private final ByteBuffer ring;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+    private final Condition writable = lock.newCondition();
+
+    private int start;
+    private int count;
+    private boolean endOfStream;
+    private boolean closed;
+    private boolean released;
+    private IOException failure;
+
+    RingBufferInputStream(InputStream source, OutputBuffer buffer) {
+        this.source = source;
+        this.buffer = buffer;
+        this.ring = buffer.acquire();
+        if (source != null) {
+            Thread pump = new Thread(this);
+            pump.setDaemon(true);
+            pump.start();
+        }
+    }
+
+    public void run() {
+        byte[] chunk = new byte[8192];
+        IOException failure = null;
+        try {
+            for (int n = source.read(chunk); n != -1; n = source.read(chunk)) {
+                if (!put(chunk, 0, n)) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            // Closed while waiting for space
+        } finally {
+            finish(failure);
+        }
+    }
+
+    /** Mark the end of the stream
+     * @param failure the exception the consumer gets once it has read the buffered bytes, or null */
+    void finish(IOException failure) {
+        lock.lock();
+        try {
+            this.failure = failure;
+            endOfStream = true;
+            readable.signalAll();
+            if (closed) {
+                release();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Copy bytes into the ring, waiting for space while it is filled up to the high watermark
+     * @return false if the stream has been closed by the consumer */
+    boolean put(byte[] chunk, int offset, int length) throws InterruptedException {
+        lock.lock();
+        try {
+            int limit = offset + length;
+            while (offset < limit) {
+                if (count >= buffer.getHighWatermark()) {
+                    long stallStart = System.nanoTime();
+                    while (count > buffer.getLowWatermark() && !closed) {
+                        writable.await();
+                    }
+                    buffer.producerStalled(System.nanoTime() - stallStart);
+                }
+                if (closed) {
+                    return false;
+                }
+                int end = (start + count) % ring.capacity();
+                int n = Math.min(limit - offset, Math.min(buffer.getHighWatermark() - count, ring.capacity() - end));
+                ring.position(end);
+                ring.put(chunk, offset, n);
+                offset += n;
+                count += n;
+                buffer.buffered(n);
+                readable.signal();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            if (count == 0 && !endOfStream) {
+                long waitStart = System.nanoTime();
+                while (count == 0 && !endOfStream) {
+                    readable.await();
+                }
+                buffer.consumerWaited(System.nanoTime() - waitStart);
+            }
+            if (count == 0) {
+                release();
+                if (failure != null) {
+                    throw failure;
+                }
+                return -1;
+            }
+            int n = Math.min(len, Math.min(count, ring.capacity() - start));
+            ring.position(start);
+            ring.get(b, off, n);
+            start = (start + n) % ring.capacity();
+            count -= n;
+            buffer.consumed(n);
+            if (count <= buffer.getLowWatermark()) {
+                writable.signal();
+            }
+            return n;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Hand the ring back for reuse, once neither the pump nor the consumer will touch it anymore */
+    private void release() {
+        if (!released) {
+            released = true;
+            buffer.release(ring);
+        }
+    }
+
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            buffer.buffered(-count);
+            count = 0;
+            writable.signalAll();
+            if (endOfStream) {
+                release();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (source != null) {
+            source.close();
+        }
+    }
+}
@@ -38,8 +38,8 @@ class StreamConsumerConsumptionThread implements OutputConsumptionThread {
         thread.start();
     }
 
-    public void join() throws InterruptedException {
-        thread.join();
+    public void join(long millis) throws InterruptedException {
+        thread.join(millis);
     }
 
     public void interrupt() {
@@ -36,8 +36,8 @@ class StreamCopyConsumptionThread implements OutputConsumptionThread {
         this.thread.start();
     }
 
-    public void join() throws InterruptedException {
-        thread.join();
+    public void join(long millis) throws InterruptedException {
+        thread.join(millis);
 
     }
 
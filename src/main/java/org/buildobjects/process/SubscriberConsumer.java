@@ -0,0 +1,113 @@
+package org.buildobjects.process;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Publishes a stream to a {@link Flow.Subscriber}. The stream only gets read when there is
+ * demand, so a subscriber that requests slowly holds back the process. After a cancellation the
+ * rest of the stream is discarded.
+ */
+class SubscriberConsumer implements StreamConsumer, Flow.Subscription {
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Flow.Subscriber<? super ByteBuffer> subscriber;
+    private final boolean signalCompletion;
+    private long demand;
+    private boolean cancelled;
+    private boolean subscribed;
+    private Throwable invalidRequest;
+
+    /** @param signalCompletion whether the end of the stream completes the subscriber, otherwise
+     *                          the caller signals the completion */
+    SubscriberConsumer(Flow.Subscriber<? super ByteBuffer> subscriber, boolean signalCompletion) {
+        this.subscriber = subscriber;
+        this.signalCompletion = signalCompletion;
+    }
+
+    public synchronized void request(long n) {
+        if (n <= 0) {
+            invalidRequest = new IllegalArgumentException("The number of requested items must be positive, was " + n + ".");
+            cancelled = true;
+        } else {
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+        }
+        notifyAll();
+    }
+
+    public synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+    }
+
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Hand the subscription to the subscriber, unless that has happened already */
+    void subscribe() {
+        synchronized (this) {
+            if (subscribed) {
+                return;
+            }
+            subscribed = true;
+        }
+        subscriber.onSubscribe(this);
+    }
+
+    public void consume(InputStream stream) throws IOException {
+        subscribe();
+        try {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            while (awaitDemand()) {
+                int n = stream.read(chunk);
+                if (n == -1) {
+                    if (signalCompletion) {
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                byte[] item = new byte[n];
+                System.arraycopy(chunk, 0, item, 0, n);
+                subscriber.onNext(ByteBuffer.wrap(item));
+            }
+            Throwable error = invalidRequest();
+            if (error != null) {
+                subscriber.onError(error);
+            }
+            while (stream.read(chunk) != -1) {
+                // Discard the rest, so the process doesn't block on a full pipe.
+            }
+        } catch (IOException e) {
+            if (signalCompletion) {
+                subscriber.onError(e);
+            }
+            throw e;
+        }
+    }
+
+    /** @return the exception for a request of a non-positive number of items, or null */
+    synchronized Throwable invalidRequest() {
+        return invalidRequest;
+    }
+
+    /** @return true if an item may be published, false if the subscription has been cancelled */
+    private synchronized boolean awaitDemand() throws InterruptedIOException {
+        try {
+            while (demand == 0 && !cancelled) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for demand.");
+        }
+        if (cancelled) {
+            return false;
+        }
+        if (demand != Long.MAX_VALUE) {
+            demand--;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,83 @@
+package org.buildobjects.process;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Subscribes to a {@link Flow.Publisher} and feeds the buffers it publishes into a stream. It
+ * requests the next buffer only once the previous one has been written, so the publisher follows
+ * the pace at which the process reads its input.
+ */
+class SubscribingCopyRunner implements Runnable, Flow.Subscriber<ByteBuffer> {
+    private static final Object COMPLETE = new Object();
+
+    private final Flow.Publisher<? extends ByteBuffer> in;
+    private final OutputStream out;
+    private final BlockingQueue<Object> signals = new LinkedBlockingQueue<Object>();
+    private volatile Flow.Subscription subscription;
+
+    SubscribingCopyRunner(Flow.Publisher<? extends ByteBuffer> in, OutputStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    public void onNext(ByteBuffer item) {
+        signals.add(item);
+    }
+
+    public void onError(Throwable throwable) {
+        signals.add(throwable);
+    }
+
+    public void onComplete() {
+        signals.add(COMPLETE);
+    }
+
+    public void run() {
+        in.subscribe(this);
+        boolean closed = false;
+        try {
+            for (Object signal = signals.take(); signal != COMPLETE; signal = signals.take()) {
+                if (signal instanceof Throwable) {
+                    throw new RuntimeException("Input publisher failed.", (Throwable) signal);
+                }
+                try {
+                    new ByteBufferCopyRunner((ByteBuffer) signal, out).write();
+                } catch (IOException e) {
+                    subscription.cancel();
+                    throw e;
+                }
+                subscription.request(1);
+            }
+            closed = true;
+            out.close();
+        } catch (IOException e) {
+            throw new RuntimeException("", e);
+        } catch (InterruptedException e) {
+            // The publisher may not even have subscribed yet.
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        } finally {
+            if (!closed) {
+                closeQuietly();
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // The process doesn't read its input anymore, which is what closing is for.
+        }
+    }
+}
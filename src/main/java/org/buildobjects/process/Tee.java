@@ -0,0 +1,134 @@
+package org.buildobjects.process;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An additional sink for the output of a process, see {@link ProcBuilder#teeOutputTo(OutputStream)}.
+ * The sink is either an {@link OutputStream}, a {@link WritableByteChannel} or a {@link StreamConsumer}.
+ *
+ * Without a buffer, streams and channels get handed the chunks read from the pipe on the thread
+ * that reads them, channels as read-only views of the read buffer. With a buffer, the chunks are
+ * copied into it and a separate thread feeds the sink, so that it only slows down reading once the
+ * buffer is full. Stream consumers always get a buffer, because they pull their input.
+ *
+ * The sinks get the output as far as it has been read. If the consumer of a process stops reading
+ * before the end of the stream, the sinks see the end of the stream there.
+ */
+class Tee {
+    private final Object sink;
+    private final OutputBuffer buffer;
+
+    Tee(Object sink, OutputBuffer buffer) {
+        this.sink = sink;
+        this.buffer = buffer;
+    }
+
+    /** @return the state of the sink for one run */
+    Branch open() {
+        if (buffer != null) {
+            return new BufferedBranch(this);
+        }
+        return new Branch(sink);
+    }
+
+    /** Hands chunks directly to a stream or channel */
+    static class Branch {
+        private final Object sink;
+
+        Branch(Object sink) {
+            this.sink = sink;
+        }
+
+        void write(byte[] chunk, int offset, int length) throws IOException {
+            if (sink instanceof OutputStream) {
+                ((OutputStream) sink).write(chunk, offset, length);
+            } else {
+                ByteBuffer view = ByteBuffer.wrap(chunk, offset, length).asReadOnlyBuffer();
+                while (view.hasRemaining()) {
+                    ((WritableByteChannel) sink).write(view);
+                }
+            }
+        }
+
+        void finish(IOException failure) throws IOException {
+            if (sink instanceof OutputStream) {
+                ((OutputStream) sink).flush();
+            }
+        }
+
+        /** @param millis the time to wait at most, 0 to wait until the sink has been fed
+         * @return the exception the sink failed with, or null */
+        Throwable join(long millis) throws InterruptedException {
+            return null;
+        }
+    }
+
+    /** Feeds the sink from a ring buffer on a separate thread */
+    private static class BufferedBranch extends Branch implements Runnable {
+        private final Tee tee;
+        private final RingBufferInputStream ring;
+        private final Thread thread;
+        private Throwable throwable;
+
+        BufferedBranch(Tee tee) {
+            super(null);
+            this.tee = tee;
+            this.ring = new RingBufferInputStream(null, tee.buffer);
+            this.thread = new Thread(this);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public void run() {
+            try {
+                if (tee.sink instanceof StreamConsumer) {
+                    ((StreamConsumer) tee.sink).consume(ring);
+                } else {
+                    copy(ring, new Branch(tee.sink));
+                }
+            } catch (Throwable t) {
+                throwable = t;
+            } finally {
+                // Unblock the writer if the sink stopped reading early.
+                try {
+                    ring.close();
+                } catch (IOException e) {
+                    // The ring has no source to close
+                }
+            }
+        }
+
+        private static void copy(InputStream in, Branch out) throws IOException {
+            byte[] chunk = new byte[8192];
+            for (int n = in.read(chunk); n != -1; n = in.read(chunk)) {
+                out.write(chunk, 0, n);
+            }
+            out.finish(null);
+        }
+
+        @Override
+        void write(byte[] chunk, int offset, int length) throws IOException {
+            try {
+                ring.put(chunk, offset, length);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        @Override
+        void finish(IOException failure) {
+            ring.finish(failure);
+        }
+
+        @Override
+        Throwable join(long millis) throws InterruptedException {
+            thread.join(millis);
+            return throwable;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.buildobjects.process;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands every chunk read from the underlying stream to the branches of a list of {@link Tee}s.
+ */
+class TeeInputStream extends FilterInputStream {
+    private final List<Tee.Branch> branches = new ArrayList<Tee.Branch>();
+    private boolean finished;
+
+    TeeInputStream(InputStream in, List<Tee> tees) {
+        super(in);
+        for (Tee tee : tees) {
+            branches.add(tee.open());
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n;
+        try {
+            n = in.read(b, off, len);
+        } catch (IOException e) {
+            finish(e);
+            throw e;
+        }
+        if (n == -1) {
+            finish(null);
+        }
+        if (n > 0) {
+            for (Tee.Branch branch : branches) {
+                branch.write(b, off, n);
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish(null);
+        super.close();
+    }
+
+    /** End the branches once the output has been consumed, the consumer may have stopped reading
+     * before the end of the stream */
+    void end() throws IOException {
+        finish(null);
+    }
+
+    /** End the branches when the output is abandoned, e.g. on a timeout */
+    void cancel() {
+        try {
+            finish(new InterruptedIOException("The output was abandoned."));
+        } catch (IOException e) {
+            // Flushing a branch failed, it gets the output no more anyway
+        }
+    }
+
+    private synchronized void finish(IOException failure) throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        for (Tee.Branch branch : branches) {
+            branch.finish(failure);
+        }
+    }
+
+    /** Wait for the buffered branches to drain.
+     * @param millis the time to wait at most, 0 to wait until they have been drained
+     * @return the exceptions the branches failed with */
+    List<Throwable> join(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        List<Throwable> exceptions = new ArrayList<Throwable>();
+        for (Tee.Branch branch : branches) {
+            Throwable throwable = branch.join(millis == 0 ? 0 : Math.max(1, deadline - System.currentTimeMillis()));
+            if (throwable != null) {
+                exceptions.add(throwable);
+            }
+        }
+        return exceptions;
+    }
+}
@@ -6,4 +6,8 @@ public class TimeoutException extends RuntimeException {
     TimeoutException(String s, long timeout) {
         super("Process '" + s + "' timed out after " + timeout + "ms.");
     }
+
+    TimeoutException(String message) {
+        super(message);
+    }
 }
@@ -0,0 +1,161 @@
+package org.buildobjects.process;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits Java Flight Recorder events for process spawns, exits, timeouts and kills, and for reads of
+ * the pipes that block for long. Events that are disabled in the recording settings are neither
+ * allocated nor committed, and the command line only gets formatted for enabled events.
+ */
+class FlightRecorderEvents {
+
+    private static final EventType SPAWN = EventType.getEventType(Spawn.class);
+    private static final EventType EXIT = EventType.getEventType(Exit.class);
+    private static final EventType TIMEOUT = EventType.getEventType(Timeout.class);
+    private static final EventType KILL = EventType.getEventType(Kill.class);
+    private static final EventType PUMP_STALL = EventType.getEventType(PumpStall.class);
+
+    private FlightRecorderEvents() {
+    }
+
+    @Name("org.buildobjects.process.Spawn")
+    @Label("Process Spawn")
+    @Category("jproc")
+    static class Spawn extends Event {
+        @Label("Command Line")
+        String commandLine;
+
+        @Label("Spawn Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long spawnTime;
+    }
+
+    @Name("org.buildobjects.process.Exit")
+    @Label("Process Exit")
+    @Category("jproc")
+    static class Exit extends Event {
+        @Label("Command Line")
+        String commandLine;
+
+        @Label("Exit Value")
+        int exitValue;
+
+        @Label("Execution Time")
+        @Timespan(Timespan.MILLISECONDS)
+        long executionTime;
+    }
+
+    @Name("org.buildobjects.process.Timeout")
+    @Label("Process Timeout")
+    @Category("jproc")
+    static class Timeout extends Event {
+        @Label("Command Line")
+        String commandLine;
+
+        @Label("Message")
+        String message;
+    }
+
+    @Name("org.buildobjects.process.Kill")
+    @Label("Process Kill")
+    @Category("jproc")
+    static class Kill extends Event {
+        @Label("Command Line")
+        String commandLine;
+    }
+
+    @Name("org.buildobjects.process.PumpStall")
+    @Label("Pipe Read Stall")
+    @Description("A read from the pipe of a process that blocked because the process produced no output")
+    @Category("jproc")
+    @Threshold("20 ms")
+    static class PumpStall extends Event {
+        @Label("Stream")
+        String stream;
+
+        @Label("Bytes Read")
+        int bytes;
+    }
+
+    static void spawned(Proc proc, long spawnTime) {
+        if (SPAWN.isEnabled()) {
+            Spawn event = new Spawn();
+            event.commandLine = proc.toString();
+            event.spawnTime = spawnTime;
+            event.commit();
+        }
+    }
+
+    static void exited(Proc proc, int exitValue, long executionTime) {
+        if (EXIT.isEnabled()) {
+            Exit event = new Exit();
+            event.commandLine = proc.toString();
+            event.exitValue = exitValue;
+            event.executionTime = executionTime;
+            event.commit();
+        }
+    }
+
+    static void timedOut(Proc proc, TimeoutException exception) {
+        if (TIMEOUT.isEnabled()) {
+            Timeout event = new Timeout();
+            event.commandLine = proc.toString();
+            event.message = exception.getMessage();
+            event.commit();
+        }
+    }
+
+    static void killed(Proc proc) {
+        if (KILL.isEnabled()) {
+            Kill event = new Kill();
+            event.commandLine = proc.toString();
+            event.commit();
+        }
+    }
+
+    /** @return the stream, instrumented to report reads that block for long if that event is enabled */
+    static InputStream instrument(InputStream stream, final String name) {
+        if (!PUMP_STALL.isEnabled()) {
+            return stream;
+        }
+        return new FilterInputStream(stream) {
+            @Override
+            public int read() throws IOException {
+                PumpStall event = new PumpStall();
+                event.begin();
+                int b = in.read();
+                commit(event, b == -1 ? 0 : 1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                PumpStall event = new PumpStall();
+                event.begin();
+                int n = in.read(b, off, len);
+                commit(event, Math.max(n, 0));
+                return n;
+            }
+
+            private void commit(PumpStall event, int bytes) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.stream = name;
+                    event.bytes = bytes;
+                    event.commit();
+                }
+            }
+        };
+    }
+}
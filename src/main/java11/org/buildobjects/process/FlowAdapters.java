@@ -0,0 +1,123 @@
+package org.buildobjects.process;
+
+/**
+ * Converts between the {@link Flow} interfaces of this library and {@link java.util.concurrent.Flow}, so
+ * that the publishers and subscribers of the JDK, Reactor or RxJava can be used with a {@link ProcBuilder},
+ * e.g. {@code builder.withInput(FlowAdapters.fromFlowPublisher(publisher))} or
+ * {@code FlowAdapters.toFlowPublisher(builder.outputPublisher())}. Only available on Java 11 and later.
+ */
+public final class FlowAdapters {
+
+    private FlowAdapters() {
+    }
+
+    /** @param publisher a publisher of this library
+     * @param <T> type of the items
+     * @return the publisher as JDK publisher */
+    @SuppressWarnings("unchecked")
+    public static <T> java.util.concurrent.Flow.Publisher<T> toFlowPublisher(Flow.Publisher<? extends T> publisher) {
+        if (publisher instanceof FlowPublisherAdapter) {
+            return ((FlowPublisherAdapter<T>) publisher).publisher;
+        }
+        return new PublisherAdapter<T>(publisher);
+    }
+
+    /** @param publisher a JDK publisher
+     * @param <T> type of the items
+     * @return the publisher as publisher of this library */
+    @SuppressWarnings("unchecked")
+    public static <T> Flow.Publisher<T> fromFlowPublisher(java.util.concurrent.Flow.Publisher<? extends T> publisher) {
+        if (publisher instanceof PublisherAdapter) {
+            return ((PublisherAdapter<T>) publisher).publisher;
+        }
+        return new FlowPublisherAdapter<T>(publisher);
+    }
+
+    /** @param subscriber a subscriber of this library
+     * @param <T> type of the items
+     * @return the subscriber as JDK subscriber */
+    public static <T> java.util.concurrent.Flow.Subscriber<T> toFlowSubscriber(final Flow.Subscriber<T> subscriber) {
+        return new java.util.concurrent.Flow.Subscriber<T>() {
+            public void onSubscribe(final java.util.concurrent.Flow.Subscription subscription) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    public void request(long n) {
+                        subscription.request(n);
+                    }
+
+                    public void cancel() {
+                        subscription.cancel();
+                    }
+                });
+            }
+
+            public void onNext(T item) {
+                subscriber.onNext(item);
+            }
+
+            public void onError(Throwable throwable) {
+                subscriber.onError(throwable);
+            }
+
+            public void onComplete() {
+                subscriber.onComplete();
+            }
+        };
+    }
+
+    /** @param subscriber a JDK subscriber
+     * @param <T> type of the items
+     * @return the subscriber as subscriber of this library */
+    public static <T> Flow.Subscriber<T> fromFlowSubscriber(final java.util.concurrent.Flow.Subscriber<T> subscriber) {
+        return new Flow.Subscriber<T>() {
+            public void onSubscribe(final Flow.Subscription subscription) {
+                subscriber.onSubscribe(new java.util.concurrent.Flow.Subscription() {
+                    public void request(long n) {
+                        subscription.request(n);
+                    }
+
+                    public void cancel() {
+                        subscription.cancel();
+                    }
+                });
+            }
+
+            public void onNext(T item) {
+                subscriber.onNext(item);
+            }
+
+            public void onError(Throwable throwable) {
+                subscriber.onError(throwable);
+            }
+
+            public void onComplete() {
+                subscriber.onComplete();
+            }
+        };
+    }
+
+    private static class PublisherAdapter<T> implements java.util.concurrent.Flow.Publisher<T> {
+        private final Flow.Publisher<T> publisher;
+
+        @SuppressWarnings("unchecked")
+        PublisherAdapter(Flow.Publisher<? extends T> publisher) {
+            this.publisher = (Flow.Publisher<T>) publisher;
+        }
+
+        public void subscribe(java.util.concurrent.Flow.Subscriber<? super T> subscriber) {
+            publisher.subscribe(fromFlowSubscriber(subscriber));
+        }
+    }
+
+    private static class FlowPublisherAdapter<T> implements Flow.Publisher<T> {
+        private final java.util.concurrent.Flow.Publisher<T> publisher;
+
+        @SuppressWarnings("unchecked")
+        FlowPublisherAdapter(java.util.concurrent.Flow.Publisher<? extends T> publisher) {
+            this.publisher = (java.util.concurrent.Flow.Publisher<T>) publisher;
+        }
+
+        public void subscribe(Flow.Subscriber<? super T> subscriber) {
+            publisher.subscribe(toFlowSubscriber(subscriber));
+        }
+    }
+}
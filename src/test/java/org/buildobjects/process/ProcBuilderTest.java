@@ -1,12 +1,37 @@
 package org.buildobjects.process;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.Test;
 
 import java.io.*;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
 
 
 /**
@@ -227,6 +252,61 @@ public class ProcBuilderTest {
         }
     }
 
+    /**
+     * On a loaded machine a process may hit the timeout just because it didn't get scheduled. Alternatively
+     * a budget for the CPU time can be given, which covers the process and its descendants. The whole
+     * process tree gets killed when the budget is exceeded:
+     */
+    @Test
+    public void testHonorsCpuTimeout() throws InterruptedException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            new ProcBuilder("bash")
+                .withArgs("-c", "bash -c 'while :; do :; done' & echo $!; wait")
+                .withOutputStream(output)
+                .withCpuTimeoutMillis(300)
+                .run();
+            fail("Should time out");
+        } catch (CpuTimeoutException ex) {
+            assertTrue(ex.getMessage().startsWith("Process 'bash -c 'bash -c '\"'\"'while :; do :; done'\"'\"' & echo $!; wait'' exceeded its CPU time budget of 300ms"));
+            assertTrue(ex.getCpuTime() > 300);
+        }
+
+        String child = output.toString().trim();
+        Thread.sleep(100);
+        // The orphaned child is gone, or a zombie if nobody reaps it
+        String state = ProcBuilder.run("bash", "-c", "cut -d' ' -f3 /proc/" + child + "/stat 2>/dev/null || echo gone");
+        assertTrue(state.equals("Z\n") || state.equals("gone\n"));
+
+        assertEquals(0, new ProcBuilder("sleep").withArg("0.5").withCpuTimeoutMillis(100).run().getExitValue());
+    }
+
+    /**
+     * Hung processes usually stop producing output long before the overall timeout expires.
+     * An idle timeout kills processes that have been silent on stdout and stderr for too long:
+     */
+    @Test
+    public void testHonorsIdleTimeout() {
+        long start = System.currentTimeMillis();
+        try {
+            new ProcBuilder("bash")
+                .withArgs("-c", "echo started; exec sleep 10")
+                .withTimeoutMillis(10000)
+                .withIdleTimeoutMillis(300)
+                .run();
+            fail("Should time out");
+        } catch (IdleTimeoutException ex) {
+            assertEquals("Process 'bash -c 'echo started; exec sleep 10'' produced no output for 300ms.", ex.getMessage());
+            assertTrue(System.currentTimeMillis() - start < 5000);
+        }
+
+        ProcResult result = new ProcBuilder("bash")
+            .withArgs("-c", "for i in 1 2 3 4 5 6; do echo $i; sleep 0.1; done")
+            .withIdleTimeoutMillis(1000)
+            .run();
+        assertEquals("1\n2\n3\n4\n5\n6\n", result.getOutputString());
+    }
+
     /**
      * Even if the process does not timeout, we might be interested in the
      * execution time. It is also available through the result:
@@ -408,6 +488,148 @@ public class ProcBuilderTest {
         assertTrue(result.getOutputBytes().length > 2 * MEGA);
     }
 
+    /**
+     * Large inputs don't need to be materialized as `byte[]`. The input
+     * can be taken from a `ByteBuffer` (including direct buffers), from a
+     * `FileChannel` or lazily from an `Iterator` of `CharSequence`s:
+     */
+    @Test
+    public void testInputFromBuffersChannelsAndIterators() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+        buffer.put("Hello Buffer".getBytes()).flip();
+        assertEquals("Hello Buffer", new ProcBuilder("cat").withInput(buffer).run().getOutputString());
+
+        File file = File.createTempFile("jproc", ".txt");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("Hello Channel".getBytes());
+        }
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            ProcResult result = new ProcBuilder("cat")
+                .withInput(channel)
+                .run();
+            assertEquals("Hello Channel", result.getOutputString());
+        }
+
+        Iterator<String> lines = Arrays.asList("line1\n", "line2\n", "line3\n").iterator();
+        ProcResult result = new ProcBuilder("wc")
+            .withArg("-l")
+            .withInput(lines)
+            .run();
+        assertEquals("3", result.getOutputString().trim());
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testStopsFeedingTruncatedFile() throws IOException {
+        final File file = File.createTempFile("jproc", ".bin");
+        file.deleteOnExit();
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(10 * 1024 * 1024);
+        }
+
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            // Truncates the file while the feeder is blocked on the full pipe, then drains it.
+            ProcResult result = new ProcBuilder("bash")
+                .withArgs("-c", "sleep 0.5; truncate -s 0 " + file.getAbsolutePath() + "; wc -c")
+                .withInput(channel)
+                .withTimeoutMillis(5000)
+                .run();
+            assertTrue(Long.parseLong(result.getOutputString().trim()) < 10 * 1024 * 1024);
+        }
+    }
+
+    /**
+     * String input and output are encoded using the platform's default charset,
+     * unless a charset is configured explicitly:
+     */
+    @Test
+    public void testHonorsCharset() {
+        ProcResult result = new ProcBuilder("cat")
+            .withCharset(StandardCharsets.ISO_8859_1)
+            .withInput("Gr\u00fc\u00dfe")
+            .run();
+
+        assertEquals(5, result.getOutputBytes().length);
+        assertEquals("Gr\u00fc\u00dfe", result.getOutputString());
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testDecodesStringsOnce() {
+        ProcResult result = new ProcBuilder("bash")
+            .withArgs("-c", "echo ascii; >&2 printf '\\303\\274ber\\n'")
+            .withCharset(StandardCharsets.UTF_8)
+            .run();
+
+        assertEquals("ascii\n", result.getOutputString());
+        assertSame(result.getOutputString(), result.getOutputString());
+        assertEquals("\u00fcber\n", result.getErrorString());
+        assertSame(result.getErrorString(), result.getErrorString());
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testDecodesFailureOutputAsUtf8UnlessConfigured() {
+        try {
+            new ProcBuilder("bash").withArgs("-c", "printf '\\303\\274ber\\n'; exit 1").run();
+            fail("Should throw exception");
+        } catch (ExternalProcessFailureException ex) {
+            assertTrue(ex.getMessage().contains("STDOUT: \u00fcber"));
+        }
+
+        try {
+            new ProcBuilder("bash").withArgs("-c", "printf '\\374ber\\n'; exit 1")
+                .withCharset(StandardCharsets.ISO_8859_1)
+                .run();
+            fail("Should throw exception");
+        } catch (ExternalProcessFailureException ex) {
+            assertTrue(ex.getMessage().contains("STDOUT: \u00fcber"));
+        }
+    }
+
+    /**
+     * Captured output is kept in memory. If large, textual results are retained
+     * for a while, the output can be kept compressed instead. It gets decompressed
+     * when it is accessed:
+     */
+    @Test
+    public void testCompressedCapture() {
+        ProcResult result = new ProcBuilder("bash")
+            .withArgs("-c", "seq 1 100000; >&2 echo done")
+            .compressCapturedOutput()
+            .run();
+
+        String[] lines = result.getOutputString().split("\n");
+        assertEquals(100000, lines.length);
+        assertEquals("100000", lines[99999]);
+        assertEquals("done\n", result.getErrorString());
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testCompressedCaptureCanBeReadWhileWritingAndReset() {
+        CompressedByteArrayOutputStream output = new CompressedByteArrayOutputStream();
+        output.write("first ".getBytes(), 0, 6);
+        assertEquals("first ", new String(output.toByteArray()));
+
+        output.write("second".getBytes(), 0, 6);
+        assertEquals("first second", new String(output.toByteArray()));
+
+        output.reset();
+        output.write("third".getBytes(), 0, 5);
+        output.close();
+        assertEquals("third", new String(output.toByteArray()));
+    }
+
     /**
      * The builder allows to build and spawn several processes from
      * the same builder instance:
@@ -447,6 +669,43 @@ public class ProcBuilderTest {
             .run();
     }
 
+    /**
+     * A slow consumer makes the process block on the full pipe. An `OutputBuffer` keeps reading the
+     * output into a bounded, off-heap buffer, pausing at its high watermark and resuming at its low
+     * watermark. Its metrics show where backpressure occurs:
+     */
+    @Test
+    public void testBuffersOutputForSlowConsumer() {
+        OutputBuffer buffer = new OutputBuffer(64 * 1024).withWatermarks(32 * 1024, 8 * 1024);
+        final int[] lines = new int[1];
+
+        new ProcBuilder("seq")
+            .withArgs("1", "100000")
+            .withOutputBuffer(buffer)
+            .withOutputConsumer(new StreamConsumer() {
+                public void consume(InputStream stream) throws IOException {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(stream), 1024);
+                    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                        assertEquals(String.valueOf(++lines[0]), line);
+                        if (lines[0] % 10000 == 0) {
+                            try {
+                                Thread.sleep(20);
+                            } catch (InterruptedException e) {
+                                throw new InterruptedIOException();
+                            }
+                        }
+                    }
+                }
+            })
+            .run();
+
+        assertEquals(100000, lines[0]);
+        assertEquals(588895, buffer.getBytesTransferred());
+        assertEquals(0, buffer.getOccupancy());
+        assertTrue(buffer.getPeakOccupancy() <= 32 * 1024);
+        assertTrue(buffer.getProducerStalls() > 0);
+    }
+
     /**
      * Of course, you can consume stderr in the same way:
      */
@@ -475,6 +734,311 @@ public class ProcBuilderTest {
             .run();
     }
 
+    /**
+     * For record oriented output there are consumers that split the stream into
+     * records and hand them over one by one, while the process is still running.
+     * There are consumers for NUL-delimited records, e.g. from `find -print0`,
+     * for arbitrary delimiters, for fixed size binary records and for JSON lines:
+     */
+    @Test
+    public void testRecordConsumers() {
+        final List<String> files = new ArrayList<>();
+        new ProcBuilder("printf")
+            .withArg("a.txt\\0with space.txt\\0")
+            .withOutputConsumer(Records.nulDelimited(new RecordHandler<byte[]>() {
+                public void handle(byte[] record) {
+                    files.add(new String(record));
+                }
+            }))
+            .run();
+
+        assertEquals(Arrays.asList("a.txt", "with space.txt"), files);
+
+        final List<String> frames = new ArrayList<>();
+        new ProcBuilder("printf")
+            .withArg("{\"a\":1}\\r\\n\\n{\"b\":2}")
+            .withOutputConsumer(Records.jsonLines(new RecordHandler<String>() {
+                public void handle(String frame) {
+                    frames.add(frame);
+                }
+            }))
+            .run();
+
+        assertEquals(Arrays.asList("{\"a\":1}", "{\"b\":2}"), frames);
+    }
+
+    /**
+     * Alternatively the output can be pulled line by line, or record by record,
+     * through an iterator. Only a bounded number of records is buffered, so this
+     * works with arbitrarily large output. The iterator must be closed; closing it
+     * early terminates the process, otherwise the exit status gets checked:
+     */
+    @Test
+    public void testIteratingOverOutput() throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (RecordIterator<String> iterator = new ProcBuilder("yes").withArg("y").lines()) {
+            while (lines.size() < 3 && iterator.hasNext()) {
+                lines.add(iterator.next());
+            }
+        }
+        assertEquals(Arrays.asList("y", "y", "y"), lines);
+
+        try (RecordIterator<byte[]> records = new ProcBuilder("printf")
+            .withArg("a\\0b\\0")
+            .records(Records.nulDelimited())) {
+            assertEquals("a", new String(records.next()));
+            assertEquals("b", new String(records.next()));
+            assertFalse(records.hasNext());
+        }
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testIteratingOverOutputChecksExitStatus() throws IOException {
+        RecordIterator<String> iterator = new ProcBuilder("bash")
+            .withArgs("-c", "echo line; exit 3")
+            .lines();
+        try {
+            assertEquals("line", iterator.next());
+            iterator.hasNext();
+            fail("Should throw exception");
+        } catch (ExternalProcessFailureException ex) {
+            assertEquals(3, ex.getExitValue());
+        } finally {
+            iterator.close();
+        }
+
+        try (RecordIterator<String> slow = new ProcBuilder("sleep").withArg("2").withTimeoutMillis(500).lines()) {
+            slow.hasNext();
+            fail("Should time out");
+        } catch (TimeoutException ex) {
+            assertEquals("Process 'sleep 2' timed out after 500ms.", ex.getMessage());
+        }
+    }
+
+    /**
+     * Reactive applications can consume the output through a `Flow.Publisher` and supply the
+     * input through one. The interfaces mirror `java.util.concurrent.Flow`. The output only gets read as the
+     * subscriber requests it, and the input only as fast as the process consumes it:
+     */
+    @Test
+    public void testPublishesOutputAndSubscribesToInput() throws InterruptedException {
+        final List<String> chunks = Arrays.asList("hello ", "world");
+        Flow.Publisher<ByteBuffer> input = new Flow.Publisher<ByteBuffer>() {
+            public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    private int next;
+
+                    public void request(long n) {
+                        for (; n > 0 && next < chunks.size(); n--) {
+                            subscriber.onNext(ByteBuffer.wrap(chunks.get(next++).getBytes()));
+                        }
+                        if (next == chunks.size()) {
+                            next++;
+                            subscriber.onComplete();
+                        }
+                    }
+
+                    public void cancel() {
+                    }
+                });
+            }
+        };
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final CountDownLatch completed = new CountDownLatch(1);
+        new ProcBuilder("cat")
+            .withInput(input)
+            .outputPublisher()
+            .subscribe(new Flow.Subscriber<ByteBuffer>() {
+                private Flow.Subscription subscription;
+
+                public void onSubscribe(Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                }
+
+                public void onNext(ByteBuffer item) {
+                    output.write(item.array(), item.position(), item.remaining());
+                    subscription.request(1);
+                }
+
+                public void onError(Throwable throwable) {
+                }
+
+                public void onComplete() {
+                    completed.countDown();
+                }
+            });
+
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+        assertEquals("hello world", output.toString());
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testPublisherSignalsFailureAndTerminatesOnCancel() throws InterruptedException {
+        final BlockingQueue<Throwable> errors = new LinkedBlockingQueue<Throwable>();
+        final AtomicInteger items = new AtomicInteger();
+        class CancellingSubscriber implements Flow.Subscriber<ByteBuffer> {
+            private Flow.Subscription subscription;
+
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            public void onNext(ByteBuffer item) {
+                items.incrementAndGet();
+                subscription.cancel();
+            }
+
+            public void onError(Throwable throwable) {
+                errors.add(subscription != null ? throwable : new AssertionError("onError before onSubscribe"));
+            }
+
+            public void onComplete() {
+            }
+        }
+
+        new ProcBuilder("/does/not/exist").outputPublisher().subscribe(new CancellingSubscriber());
+        assertTrue(errors.poll(5, TimeUnit.SECONDS) instanceof StartupException);
+
+        new ProcBuilder("bash").withArgs("-c", "exit 3").outputPublisher().subscribe(new CancellingSubscriber());
+        Throwable error = errors.poll(5, TimeUnit.SECONDS);
+        assertTrue(error instanceof ExternalProcessFailureException);
+        assertEquals(3, ((ExternalProcessFailureException) error).getExitValue());
+
+        new ProcBuilder("yes").withTimeoutMillis(5000).outputPublisher().subscribe(new CancellingSubscriber());
+        Thread.sleep(500);
+        assertEquals(1, items.get());
+        assertNull(errors.poll());
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testFixedSizeRecords() {
+        final List<String> records = new ArrayList<>();
+        new ProcBuilder("bash")
+            .withArgs("-c", "printf aaaabb; sleep 0.1; printf bbcccc")
+            .withOutputConsumer(Records.fixedSize(4, new RecordHandler<byte[]>() {
+                public void handle(byte[] record) {
+                    records.add(new String(record));
+                }
+            }))
+            .run();
+
+        assertEquals(Arrays.asList("aaaa", "bbbb", "cccc"), records);
+
+        try {
+            new ProcBuilder("printf")
+                .withArg("aaaab")
+                .withOutputConsumer(Records.fixedSize(4, new RecordHandler<byte[]>() {
+                    public void handle(byte[] record) {
+                    }
+                }))
+                .run();
+            fail("Expected incomplete record to fail the consumption.");
+        } catch (IllegalStateException ex) {
+            assertEquals("Stream ended with an incomplete record of 1 bytes, expected 4.", ex.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Often we are only waiting for a process to print a certain line. Patterns
+     * can be registered for stdout and stderr, and their handler decides whether
+     * the process should be terminated. A process terminated that way is not
+     * checked for its exit status:
+     */
+    @Test
+    public void testTerminatesOnOutputPattern() {
+        ProcResult result = new ProcBuilder("bash")
+            .withArgs("-c", "echo Starting; echo Server started; exec sleep 10")
+            .withOutputPattern(Pattern.compile("started"), MatchHandler.TERMINATE)
+            .withTimeoutMillis(5000)
+            .run();
+
+        assertEquals("Starting\nServer started\n", result.getOutputString());
+        assertTrue(result.getExecutionTime() < 5000);
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testTerminationDoesNotWaitForChildrenHoldingThePipe() {
+        ProcResult result = new ProcBuilder("bash")
+            .withArgs("-c", "echo Server started; sleep 10; true")
+            .withOutputPattern(Pattern.compile("started"), MatchHandler.TERMINATE)
+            .withTimeoutMillis(5000)
+            .run();
+
+        assertEquals("Server started\n", result.getOutputString());
+        assertTrue(result.getExecutionTime() < 5000);
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testReportsConsumerFailuresOfTerminatedProcesses() {
+        try {
+            new ProcBuilder("bash")
+                .withArgs("-c", "echo Server started; exec sleep 10")
+                .withOutputPattern(Pattern.compile("started"), MatchHandler.TERMINATE)
+                .withOutputConsumer(new StreamConsumer() {
+                    public void consume(InputStream stream) throws IOException {
+                        try {
+                            while (stream.read() != -1) {
+                            }
+                        } catch (IOException e) {
+                            // The pipe may get closed when the process gets terminated
+                        }
+                        throw new IOException("Disk full");
+                    }
+                })
+                .withTimeoutMillis(5000)
+                .run();
+            fail("Expected the failure of the consumer to be reported.");
+        } catch (IllegalStateException ex) {
+            assertEquals("Disk full", ex.getCause().getMessage());
+        }
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testMatchesPatternsAcrossChunksAndStreams() {
+        final List<String> warnings = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        ProcResult result = new ProcBuilder("bash")
+            .withArgs("-c", "printf 'WARN: Disk'; sleep 0.2; printf ' low\\nINFO: ok\\n'; >&2 echo ERROR: 42")
+            .withOutputPattern(Pattern.compile("^WARN: (.*)$"), new MatchHandler() {
+                public boolean matched(String line, MatchResult match) {
+                    warnings.add(match.group(1));
+                    return false;
+                }
+            })
+            .withErrorPattern(Pattern.compile("ERROR: (\\d+)"), new MatchHandler() {
+                public boolean matched(String line, MatchResult match) {
+                    errors.add(match.group(1));
+                    return false;
+                }
+            })
+            .run();
+
+        assertEquals("WARN: Disk low\nINFO: ok\n", result.getOutputString());
+        assertEquals(Arrays.asList("Disk low"), warnings);
+        assertEquals(Arrays.asList("42"), errors);
+    }
+
     /**
      * [NO-DOC]
      */
@@ -629,6 +1193,809 @@ public class ProcBuilderTest {
         }
     }
 
+    /**
+     * Caching Results
+     * ---------------
+     *
+     * Deterministic commands that get invoked over and over again with the same
+     * arguments and input don't need to be spawned every time. A `ProcResultCache`
+     * keeps their results in memory, and optionally on disk:
+     */
+    @Test
+    public void testCachesResults() throws IOException {
+        ProcResultCache cache = new ProcResultCache(100, 1024 * 1024);
+        ProcBuilder builder = new ProcBuilder("date")
+            .withArg("+%s%N")
+            .withResultCache(cache);
+
+        String first = builder.run().getOutputString();
+        String second = builder.run().getOutputString();
+
+        assertEquals(first, second);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testCacheKeyCoversInputAndUsesDisk() throws IOException {
+        File directory = File.createTempFile("jproc-cache", "");
+        directory.delete();
+        ProcResultCache cache = new ProcResultCache(1, 1024 * 1024).withDiskDirectory(directory);
+
+        assertEquals("a", new ProcBuilder("cat").withInput("a").withResultCache(cache).run().getOutputString());
+        assertEquals("b", new ProcBuilder("cat").withInput("b").withResultCache(cache).run().getOutputString());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.size());
+
+        ProcResultCache reopened = new ProcResultCache(1, 1024 * 1024).withDiskDirectory(directory);
+        ProcResult result = new ProcBuilder("cat").withInput("a".getBytes()).withResultCache(reopened).run();
+        assertEquals("a", result.getOutputString());
+        assertEquals("cat ", result.getCommandLine());
+        assertEquals(1, reopened.getHitCount());
+
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testCachedResultsShareNoOutput() {
+        ProcResultCache cache = new ProcResultCache(100, 1024 * 1024);
+        ProcResult first = new ProcBuilder("echo").withArg("a").withResultCache(cache).run();
+        first.getOutput().write('x');
+        ProcResult second = new ProcBuilder("echo").withArg("a").withResultCache(cache).run();
+        second.getOutput().write('y');
+        ProcResult third = new ProcBuilder("echo").withArg("a").withResultCache(cache).run();
+
+        assertNotSame(second, third);
+        assertEquals("a\n", third.getOutputString());
+
+        ProcResult compressed = new ProcBuilder("echo").withArg("b").compressCapturedOutput().withResultCache(cache).run();
+        ProcResult hit = new ProcBuilder("echo").withArg("b").compressCapturedOutput().withResultCache(cache).run();
+        compressed.getOutput().reset();
+        assertEquals("b\n", hit.getOutputString());
+        assertEquals(3, cache.getHitCount());
+    }
+
+    /**
+     * The time it takes to launch a process can depend on the size of the heap of the JVM, depending on
+     * the mechanism the JDK uses to start processes. The mechanism can be selected once during startup
+     * using `ProcBuilder.useLaunchMechanism(LaunchMechanism.POSIX_SPAWN)`, the spawn time of each
+     * execution is reported in nanoseconds:
+     */
+    @Test
+    public void testReportsSpawnTime() {
+        ProcResult result = new ProcBuilder("echo").run();
+
+        assertTrue(result.getSpawnTime() > 0);
+        assertTrue(result.getSpawnTime() < result.getExecutionTime() * 1000000 + 1000000);
+
+        try {
+            ProcBuilder.useLaunchMechanism(LaunchMechanism.FORK);
+            fail("Should throw exception");
+        } catch (IllegalStateException e) {
+            assertEquals("The launch mechanism can't be changed after the first process has been started.", e.getMessage());
+        }
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testSelectingTheLaunchMechanismInEffectIsANoOp() {
+        new ProcBuilder("echo").run();
+
+        assertNull(LaunchMechanism.current());
+        ProcBuilder.useLaunchMechanism(LaunchMechanism.effective());
+    }
+
+    /**
+     * For capacity planning the CPU time, peak memory and storage I/O of a process can be measured. This
+     * is supported on Linux, where the usage gets sampled from the proc file system while the process
+     * is running:
+     */
+    @Test
+    public void testMeasuresResourceUsage() {
+        long processes = ResourceUsage.totalProcesses();
+
+        ProcResult result = new ProcBuilder("bash")
+            .withArgs("-c", "for ((i = 0; i < 300000; i++)); do :; done")
+            .measureResourceUsage()
+            .run();
+
+        ResourceUsage usage = result.getResourceUsage();
+        assertTrue(usage.getCpuTime() > 0);
+        assertTrue(usage.getPeakResidentSetSize() > 0);
+        assertTrue(ResourceUsage.totalProcesses() > processes);
+
+        try {
+            new ProcBuilder("bash").withArgs("-c", "sleep 0.2; exit 1").measureResourceUsage().run();
+            fail("Should throw exception");
+        } catch (ExternalProcessFailureException e) {
+            assertTrue(e.getResourceUsage().getPeakResidentSetSize() > 0);
+        }
+    }
+
+    /**
+     * On Linux the resources available to a process can be limited, and its scheduling priority and CPU
+     * affinity adjusted:
+     */
+    @Test
+    public void testAppliesResourceLimits() {
+        ProcResult result = new ProcBuilder("bash")
+            .withArgs("-c", "ulimit -n; nice; taskset -pc $$ | cut -d: -f2")
+            .withResourceLimits(new ResourceLimits()
+                .withOpenFiles(64)
+                .withNiceness(10)
+                .withCpuAffinity(0))
+            .run();
+
+        assertEquals("64\n10\n 0\n", result.getOutputString());
+        assertEquals("bash -c 'ulimit -n; nice; taskset -pc $$ | cut -d: -f2'", result.getCommandLine());
+    }
+
+    /**
+     * A process that exceeds its CPU time or file size limit gets killed, which is reported
+     * as a `ResourceLimitExceededException`:
+     */
+    @Test
+    public void testReportsExceededResourceLimits() throws IOException {
+        try {
+            new ProcBuilder("bash")
+                .withArgs("-c", "while :; do :; done")
+                .withResourceLimits(new ResourceLimits().withCpuTime(1))
+                .run();
+            fail("Should throw exception");
+        } catch (ResourceLimitExceededException e) {
+            assertEquals(ResourceLimits.Limit.CPU_TIME, e.getLimit());
+            assertTrue(e.getMessage().startsWith("External process `bash` exceeded its CPU time limit after "));
+        }
+
+        File file = File.createTempFile("jproc-limit", ".bin");
+        try {
+            new ProcBuilder("bash")
+                .withArgs("-c", "head -c 2000 /dev/zero > " + file.getAbsolutePath())
+                .withResourceLimits(new ResourceLimits().withFileSize(1000))
+                .run();
+            fail("Should throw exception");
+        } catch (ResourceLimitExceededException e) {
+            assertEquals(ResourceLimits.Limit.FILE_SIZE, e.getLimit());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * With a large heap it can be cheaper to let a small helper JVM spawn the processes. A `ProcessLauncher`
+     * gets started on first use and relays the streams of the processes it spawns:
+     */
+    @Test
+    public void testSpawnsThroughLauncher() throws IOException {
+        try (ProcessLauncher launcher = new ProcessLauncher()) {
+            ProcResult result = new ProcBuilder("bash")
+                .withArgs("-c", "cat; echo $GREETING; pwd; echo error >&2; exit 3")
+                .withInput("input\n")
+                .withVar("GREETING", "hello")
+                .withWorkingDirectory(new File("/tmp"))
+                .withExpectedExitStatuses(3)
+                .withLauncher(launcher)
+                .run();
+
+            assertEquals("input\nhello\n/tmp\n", result.getOutputString());
+            assertEquals("error\n", result.getErrorString());
+            assertEquals(3, result.getExitValue());
+        }
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testLauncherReportsFailuresAndKillsOnTimeout() throws IOException {
+        try (ProcessLauncher launcher = new ProcessLauncher()) {
+            try {
+                new ProcBuilder("/bin/does-not-exist").withLauncher(launcher).run();
+                fail("Should throw exception");
+            } catch (StartupException e) {
+                assertEquals("Could not startup process '/bin/does-not-exist '.", e.getMessage());
+            }
+
+            long start = System.currentTimeMillis();
+            try {
+                new ProcBuilder("sleep").withArg("10").withTimeoutMillis(500).withLauncher(launcher).run();
+                fail("Should time out");
+            } catch (TimeoutException e) {
+                assertTrue(System.currentTimeMillis() - start < 5000);
+            }
+
+            String output = new ProcBuilder("seq").withArgs("1", "100000").withLauncher(launcher).run().getOutputString();
+            assertEquals(588895, output.length());
+        }
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testLauncherFlowControlsStreams() throws IOException, InterruptedException {
+        try (ProcessLauncher launcher = new ProcessLauncher()) {
+            ProcResult counted = new ProcBuilder("wc").withArg("-c")
+                .withInput(new byte[64 * 1024 * 1024])
+                .withLauncher(launcher)
+                .run();
+            assertEquals("67108864", counted.getOutputString().trim());
+
+            final CountDownLatch release = new CountDownLatch(1);
+            final ProcBuilder stalled = new ProcBuilder("seq").withArgs("1", "1000000")
+                .withLauncher(launcher)
+                .withOutputConsumer(new StreamConsumer() {
+                    public void consume(InputStream stream) throws IOException {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException();
+                        }
+                        while (stream.read() != -1) {
+                        }
+                    }
+                });
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    stalled.run();
+                }
+            });
+            thread.start();
+
+            String output = new ProcBuilder("seq").withArgs("1", "100000").withLauncher(launcher).run().getOutputString();
+            assertEquals(588895, output.length());
+            release.countDown();
+            thread.join();
+        }
+    }
+
+    /**
+     * Processes that are run concurrently as part of the same task can be grouped in a `ProcScope`. When one
+     * of them fails, the others get terminated rather than running on until their own timeouts. Closing the
+     * scope makes sure no process outlives it:
+     */
+    @Test
+    public void testScopeTerminatesSiblingsOnFailure() throws Exception {
+        long start = System.currentTimeMillis();
+        try (ProcScope scope = new ProcScope()) {
+            Future<ProcResult> slow = scope.fork(new ProcBuilder("sleep").withArg("10").withTimeoutMillis(20000));
+            Future<ProcResult> failing = scope.fork(new ProcBuilder("bash").withArgs("-c", "sleep 0.2; exit 1"));
+            try {
+                scope.join();
+                fail("Should throw exception");
+            } catch (ExternalProcessFailureException e) {
+                assertEquals(1, e.getExitValue());
+            }
+            assertTrue(slow.isCancelled());
+            try {
+                failing.get();
+                fail("Should throw exception");
+            } catch (ExecutionException e) {
+                assertEquals(1, ((ExternalProcessFailureException) e.getCause()).getExitValue());
+            }
+            assertTrue(scope.fork(new ProcBuilder("echo").withArg("late")).isCancelled());
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        try (ProcScope scope = new ProcScope()) {
+            Future<ProcResult> hello = scope.fork(new ProcBuilder("echo").withArg("hello"));
+            Future<ProcResult> world = scope.fork(new ProcBuilder("echo").withArg("world"));
+            scope.join();
+            assertEquals("hello\nworld\n", hello.get().getOutputString() + world.get().getOutputString());
+        }
+    }
+
+    /**
+     * Flaky tools can be retried. The `RetryPolicy` determines which failures are considered transient,
+     * how often to try and how long to back off between attempts:
+     */
+    @Test
+    public void testRetriesTransientFailures() throws IOException {
+        File marker = File.createTempFile("jproc-retry", ".marker");
+        marker.delete();
+
+        ProcResult result = new ProcBuilder("bash")
+            .withArgs("-c", "if [ -e " + marker + " ]; then echo recovered; else touch " + marker + "; exit 75; fi")
+            .withRetryPolicy(new RetryPolicy(3).retryOnExitStatuses(75).withBackoff(10, 2, 1000))
+            .run();
+
+        assertEquals("recovered\n", result.getOutputString());
+        marker.delete();
+    }
+
+    /**
+     * To cut the tail latency of a tool, a second copy can be started when the first one takes longer
+     * than most invocations do. The `HedgingPolicy` is shared between the invocations and learns their
+     * execution times. The copy that succeeds first wins, the other one is terminated:
+     */
+    @Test
+    public void testHedgesSlowInvocations() throws IOException {
+        HedgingPolicy policy = new HedgingPolicy().withPercentile(95).withMinimumSamples(3);
+        for (int i = 0; i < 3; i++) {
+            new ProcBuilder("sleep").withArg("0.2").withHedging(policy).run();
+        }
+
+        File lock = File.createTempFile("jproc-hedge", ".lock");
+        lock.delete();
+        long start = System.currentTimeMillis();
+        ProcResult result = new ProcBuilder("bash")
+            .withArgs("-c", "if mkdir " + lock + " 2> /dev/null; then sleep 10; fi; echo done")
+            .withHedging(policy)
+            .run();
+
+        assertEquals("done\n", result.getOutputString());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, policy.getHedgeCount());
+        assertEquals(1, policy.getHedgeWinCount());
+        lock.delete();
+    }
+
+    /**
+     * A `LaunchScheduler` caps the number of processes that run at the same time. Launches beyond the cap
+     * wait for a slot, interactive ones ahead of bulk jobs and with the tenants of a priority taking turns.
+     * Once the queue is full, launches are rejected:
+     */
+    @Test
+    public void testSchedulesLaunchesByPriority() throws Exception {
+        final LaunchScheduler scheduler = new LaunchScheduler(1, 3);
+        final File log = File.createTempFile("jproc-schedule", ".log");
+        final String[] names = {"first", "bulk", "bulk", "interactive"};
+        final LaunchScheduler.Priority[] priorities = {LaunchScheduler.Priority.NORMAL,
+            LaunchScheduler.Priority.BULK, LaunchScheduler.Priority.BULK, LaunchScheduler.Priority.INTERACTIVE};
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            final int index = i;
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    new ProcBuilder("bash")
+                        .withArgs("-c", "sleep 0.2; echo " + names[index] + " >> " + log.getAbsolutePath())
+                        .withLaunchScheduler(scheduler, priorities[index], "tenant-" + index)
+                        .run();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+            while (scheduler.getRunningCount() + scheduler.getQueuedCount() <= i) {
+                Thread.sleep(10);
+            }
+        }
+
+        try {
+            new ProcBuilder("echo").withLaunchScheduler(scheduler).run();
+            fail("Should throw exception");
+        } catch (LaunchRejectedException e) {
+            assertEquals(1, scheduler.getRejectedCount());
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("first\ninteractive\nbulk\nbulk\n", new ProcBuilder("cat").withArg(log.getAbsolutePath()).run().getOutputString());
+        assertEquals(2, scheduler.getAdmittedCount(LaunchScheduler.Priority.BULK));
+        assertTrue(scheduler.getMaxWaitTime(LaunchScheduler.Priority.BULK) >= 400);
+        log.delete();
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testQueuedLaunchesHonourTimeoutAndTermination() throws Exception {
+        LaunchScheduler scheduler = new LaunchScheduler(1, 10);
+        ProcScope scope = new ProcScope();
+        scope.fork(new ProcBuilder("sleep").withArg("2").withLaunchScheduler(scheduler));
+        while (scheduler.getRunningCount() == 0) {
+            Thread.sleep(10);
+        }
+
+        try {
+            new ProcBuilder("echo").withTimeoutMillis(200).withLaunchScheduler(scheduler).run();
+            fail("Should throw exception");
+        } catch (TimeoutException e) {
+            assertEquals(0, scheduler.getQueuedCount());
+        }
+
+        Future<ProcResult> queued = scope.fork(new ProcBuilder("echo").withLaunchScheduler(scheduler));
+        while (scheduler.getQueuedCount() == 0) {
+            Thread.sleep(10);
+        }
+        long start = System.currentTimeMillis();
+        scope.close();
+        assertTrue(queued.isCancelled());
+        assertTrue(System.currentTimeMillis() - start < 1500);
+        assertEquals(0, scheduler.getQueuedCount());
+        assertEquals(0, scheduler.getRunningCount());
+    }
+
+    /**
+     * Rather than hand-tuning the cap per machine, it can adapt itself. An `AdaptiveLimit` raises the cap
+     * while the processes complete in their usual time and lowers it when they take much longer than usual
+     * or the load average of the machine gets too high:
+     */
+    @Test
+    public void testAdaptsConcurrencyLimitToExecutionTimes() throws Exception {
+        final AdaptiveLimit limit = new AdaptiveLimit(1, 8).withLatencyTolerance(5).withLoadFactor(1000);
+        final LaunchScheduler scheduler = new LaunchScheduler(1, 100).withAdaptiveLimit(limit);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < 5; j++) {
+                        new ProcBuilder("sleep").withArg("0.05").withLaunchScheduler(scheduler).run();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int grown = limit.getLimit();
+        assertTrue(grown > 1);
+        assertEquals(grown, scheduler.getMaxConcurrent());
+
+        new ProcBuilder("sleep").withArg("2").withLaunchScheduler(scheduler).run();
+        assertTrue(limit.getLimit() < grown);
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testShrinksLimitOncePerLoadSample() throws Exception {
+        AdaptiveLimit limit = new AdaptiveLimit(1, 16).withLoadFactor(1000);
+        for (int i = 0; i < 500; i++) {
+            limit.update(5, true);
+        }
+        assertEquals(16, limit.getLimit());
+
+        // Every load average counts as overload.
+        limit.withLoadFactor(-1);
+        for (int i = 0; i < 10; i++) {
+            limit.update(5, false);
+            Thread.sleep(20);
+        }
+        assertEquals(12, limit.getLimit());
+    }
+
+    /**
+     * The output can be fanned out to additional sinks while it is being captured or consumed. Streams
+     * and channels get each chunk as it is read, consumers and buffered sinks are fed from their own
+     * thread, so a slow sink doesn't hold back the others:
+     */
+    @Test
+    public void testTeesOutputToSeveralSinks() throws IOException {
+        File log = File.createTempFile("jproc-tee", ".log");
+        final AtomicInteger lines = new AtomicInteger();
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        try (FileChannel channel = new FileOutputStream(log).getChannel()) {
+            ProcResult result = new ProcBuilder("seq")
+                .withArgs("1", "10000")
+                .teeOutputTo(channel)
+                .teeOutputTo(copy, new OutputBuffer(1024))
+                .teeOutputTo(new StreamConsumer() {
+                    public void consume(InputStream stream) throws IOException {
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+                        while (reader.readLine() != null) {
+                            lines.incrementAndGet();
+                        }
+                    }
+                })
+                .run();
+
+            assertEquals(48894, result.getOutputBytes().length);
+        }
+        assertEquals(48894, log.length());
+        assertEquals(48894, copy.size());
+        assertEquals(10000, lines.get());
+        log.delete();
+    }
+
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testEndsTeesWhenConsumerStopsEarly() {
+        final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        long start = System.currentTimeMillis();
+
+        new ProcBuilder("bash")
+            .withArgs("-c", "echo first; echo second")
+            .withOutputConsumer(new StreamConsumer() {
+                public void consume(InputStream stream) throws IOException {
+                    stream.read();
+                }
+            })
+            .teeOutputTo(new StreamConsumer() {
+                public void consume(InputStream stream) throws IOException {
+                    for (int b = stream.read(); b != -1; b = stream.read()) {
+                        copy.write(b);
+                    }
+                }
+            })
+            .withTimeoutMillis(3000)
+            .run();
+
+        assertTrue(System.currentTimeMillis() - start < 3000);
+        assertEquals("f", copy.toString());
+    }
+
+    /**
+     * Standard output and standard error are read by separate threads, so capturing them separately
+     * loses their interleaving. An `InterleavedOutput` records both streams in the order in which they
+     * have been read, with the source and a timestamp for each chunk:
+     */
+    @Test
+    public void testCapturesInterleavedOutput() {
+        InterleavedOutput output = new InterleavedOutput();
+        ProcResult result = new ProcBuilder("bash")
+            .withArgs("-c", "echo one; sleep 0.2; echo two >&2; sleep 0.2; echo three")
+            .withInterleavedCapture(output)
+            .run();
+
+        assertEquals("one\nthree\n", result.getOutputString());
+        assertEquals("one\ntwo\nthree\n", output.getString(StandardCharsets.UTF_8));
+
+        List<InterleavedOutput.Source> sources = new ArrayList<>();
+        long previous = -1;
+        for (InterleavedOutput.Chunk chunk : output) {
+            sources.add(chunk.getSource());
+            assertTrue(chunk.getTimestamp() > previous);
+            previous = chunk.getTimestamp();
+        }
+        assertEquals(Arrays.asList(InterleavedOutput.Source.STDOUT, InterleavedOutput.Source.STDERR, InterleavedOutput.Source.STDOUT), sources);
+    }
+
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testDropsOldestInterleavedChunksBeyondCapacity() throws IOException {
+        InterleavedOutput output = new InterleavedOutput(10);
+        Iterator<InterleavedOutput.Chunk> before = output.iterator();
+        OutputStream out = output.sink(InterleavedOutput.Source.STDOUT);
+        OutputStream err = output.sink(InterleavedOutput.Source.STDERR);
+        out.write("1234".getBytes());
+        Iterator<InterleavedOutput.Chunk> early = output.iterator();
+        err.write("5678".getBytes());
+        out.write("abcd".getBytes());
+
+        assertEquals("5678abcd", output.getString(StandardCharsets.UTF_8));
+        assertEquals(2, output.getChunkCount());
+        assertEquals(4, output.getDroppedByteCount());
+        assertEquals(InterleavedOutput.Source.STDERR, output.iterator().next().getSource());
+        assertFalse(before.hasNext());
+        assertEquals("1234", early.next().getString(StandardCharsets.UTF_8));
+
+        for (int i = 0; i < 1000; i++) {
+            out.write("xyz".getBytes());
+        }
+        err.write("0123456789ABC".getBytes());
+        assertEquals("3456789ABC", output.getString(StandardCharsets.UTF_8));
+        assertEquals(1, output.getChunkCount());
+    }
+
+    /**
+     * Long running processes can report their progress while they run. The listener gets the bytes passed
+     * through the pipes so far, the elapsed time and the time since the last output, at most as often as
+     * requested and once more at the end:
+     */
+    @Test
+    public void testReportsProgress() {
+        final List<Progress> reports = Collections.synchronizedList(new ArrayList<Progress>());
+        char[] input = new char[10000];
+        Arrays.fill(input, 'x');
+
+        new ProcBuilder("bash")
+            .withArgs("-c", "cat; sleep 1; echo oops >&2")
+            .withInput(new String(input))
+            .withProgressListener(new ProgressListener() {
+                public void progress(Progress progress) {
+                    reports.add(progress);
+                }
+            }, 10)
+            .run();
+
+        assertTrue(reports.size() >= 2);
+        for (int i = 1; i < reports.size(); i++) {
+            assertFalse(reports.get(i - 1).isFinished());
+            assertTrue(reports.get(i - 1).getInputBytes() <= reports.get(i).getInputBytes());
+            assertTrue(reports.get(i - 1).getOutputBytes() <= reports.get(i).getOutputBytes());
+        }
+        Progress last = reports.get(reports.size() - 1);
+        assertTrue(last.isFinished());
+        assertEquals(10000, last.getInputBytes());
+        assertEquals(10000, last.getOutputBytes());
+        assertEquals(5, last.getErrorBytes());
+        assertTrue(last.getElapsedTime() >= 1000);
+    }
+
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testIgnoresFailingProgressListeners() {
+        final AtomicInteger reports = new AtomicInteger();
+
+        ProcResult result = new ProcBuilder("bash")
+            .withArgs("-c", "sleep 0.5; echo done")
+            .withProgressListener(new ProgressListener() {
+                public void progress(Progress progress) {
+                    reports.incrementAndGet();
+                    throw new IllegalStateException("Listener failed");
+                }
+            }, 10)
+            .run();
+
+        assertEquals("done\n", result.getOutputString());
+        assertTrue(reports.get() >= 2);
+    }
+    /**
+     * A `ProcListener` gets notified at the key points of the lifecycle of a process, e.g. to trace each
+     * invocation as a span. Listeners can be added to a builder or globally:
+     */
+    @Test
+    public void testNotifiesListenersOfLifecycle() {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        ProcListener listener = new ProcListener() {
+            public void beforeStart(ProcInvocation invocation) {
+                events.add("beforeStart " + invocation.getCommandLine());
+            }
+
+            public void started(ProcInvocation invocation, long spawnTime) {
+                events.add("started");
+            }
+
+            public void firstOutput(ProcInvocation invocation) {
+                events.add("firstOutput");
+            }
+
+            public void exited(ProcInvocation invocation, int exitValue) {
+                events.add("exited " + exitValue);
+            }
+
+            public void drained(ProcInvocation invocation) {
+                events.add("drained " + invocation.getOutputBytes());
+            }
+
+            public void timedOut(ProcInvocation invocation, TimeoutException exception) {
+                events.add("timedOut " + invocation.getTimeout());
+            }
+
+            public void killed(ProcInvocation invocation) {
+                events.add("killed");
+            }
+        };
+
+        new ProcBuilder("bash").withArgs("-c", "echo hello; sleep 0.2").withListener(listener).run();
+        assertEquals(Arrays.asList("beforeStart bash -c 'echo hello; sleep 0.2'", "started", "firstOutput", "exited 0", "drained 6"), events);
+
+        events.clear();
+        ProcBuilder.addGlobalListener(listener);
+        try {
+            new ProcBuilder("sleep").withArg("10").withTimeoutMillis(200).run();
+            fail("Should time out");
+        } catch (TimeoutException e) {
+            assertEquals(Arrays.asList("beforeStart sleep 10", "started", "killed", "timedOut 200"), events);
+        } finally {
+            ProcBuilder.removeGlobalListener(listener);
+        }
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testFinishesEveryInvocation() {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        ProcListener listener = new ProcListener() {
+            public void beforeStart(ProcInvocation invocation) {
+                events.add("beforeStart");
+            }
+
+            public void finished(ProcInvocation invocation, Throwable failure) {
+                events.add("finished " + (failure != null ? failure.getClass().getSimpleName() : null));
+            }
+        };
+
+        new ProcBuilder("echo").withListener(listener).run();
+        try {
+            new ProcBuilder("/does/not/exist").withListener(listener).run();
+            fail("Should throw exception");
+        } catch (StartupException e) {
+        }
+        try {
+            new ProcBuilder("false").withListener(listener).run();
+            fail("Should throw exception");
+        } catch (ExternalProcessFailureException e) {
+        }
+
+        assertEquals(Arrays.asList("beforeStart", "finished null", "beforeStart", "finished StartupException",
+            "beforeStart", "finished ExternalProcessFailureException"), events);
+    }
+
+    /**
+     * [NO-DOC]
+     */
+    @Test
+    public void testRecordsFlightRecorderEvents() throws Exception {
+        assumeFalse(System.getProperty("java.specification.version").startsWith("1."));
+        // The Java 11 implementation only takes over in the jar, load it the way a multi-release jar would.
+        URL classes = ProcBuilder.class.getProtectionDomain().getCodeSource().getLocation();
+        URLClassLoader loader = new URLClassLoader(new URL[]{new URL(classes, "META-INF/versions/11/"), classes},
+            ClassLoader.getSystemClassLoader().getParent());
+        Class<?> builder = loader.loadClass(ProcBuilder.class.getName());
+        Path dump = Files.createTempFile("jproc", ".jfr");
+
+        try (Recording recording = new Recording()) {
+            recording.enable("org.buildobjects.process.Spawn");
+            recording.enable("org.buildobjects.process.Exit");
+            recording.start();
+            builder.getMethod("run").invoke(builder.getConstructor(String.class, String[].class).newInstance("echo", new String[]{"hello world"}));
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        List<String> events = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+            events.add(event.getEventType().getName() + " " + event.getString("commandLine"));
+        }
+        assertEquals(Arrays.asList("org.buildobjects.process.Spawn echo 'hello world'", "org.buildobjects.process.Exit echo 'hello world'"), events);
+        Files.delete(dump);
+    }
+
+    /**
+     * Identical invocations that run concurrently, e.g. from several request threads, can share a
+     * single process. With `coalesceConcurrentRuns()` a run started while an identical one is in flight
+     * waits for it and returns the same result:
+     */
+    @Test
+    public void testCoalescesConcurrentRuns() throws Exception {
+        final File log = File.createTempFile("jproc-coalesce", ".log");
+        final String[] outputs = new String[4];
+        Thread[] threads = new Thread[outputs.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    outputs[index] = new ProcBuilder("bash")
+                        .withArgs("-c", "echo spawned >> " + log.getAbsolutePath() + "; sleep 1; date +%s%N")
+                        .coalesceConcurrentRuns()
+                        .run()
+                        .getOutputString();
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (String output : outputs) {
+            assertEquals(outputs[0], output);
+        }
+        assertEquals("spawned\n", new ProcBuilder("cat").withArg(log.getAbsolutePath()).run().getOutputString());
+        log.delete();
+    }
+
 
     /**
      * String Representations